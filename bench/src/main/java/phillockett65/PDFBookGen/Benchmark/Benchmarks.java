@@ -0,0 +1,64 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Benchmarks is the entry point of the benchmarks jar. It runs JMH with the
+ * given command line options, always adding the GC profiler so that the
+ * allocation rate is reported alongside throughput and latency.
+ *
+ * Usage: java -jar bench/target/benchmarks.jar [JMH options] [pattern]
+ */
+package phillockett65.PDFBookGen.Benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class Benchmarks {
+
+    /**
+     * Private default constructor - static class, not instantiated.
+     */
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args)
+            throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+            .parent(cmd)
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,188 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BookletBenchmark is the class that benchmarks generation as a whole, with
+ * genBooklet(), and the phases that depend on the output settings: composing
+ * the sheet sides and saving (streaming) the generated document.
+ *
+ * The full parameter matrix is large, narrow it from the command line, e.g.
+ *  java -jar bench/target/benchmarks.jar Booklet -p pages=100 -p paper=A4
+ */
+package phillockett65.PDFBookGen.Benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import phillockett65.PDFBookGen.BookOptions;
+import phillockett65.PDFBookGen.ImpositionPlan;
+import phillockett65.PDFBookGen.PageIndex;
+import phillockett65.PDFBookGen.SheetComposer;
+import phillockett65.PDFBookGen.StreamingWriter;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookletBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int pages;
+
+    @Param({ "1", "2", "3", "4", "5", "6" })
+    public int sheets;
+
+    @Param({ "A4", "Letter", "A3" })
+    public String paper;
+
+    // Sources.CHAPTERS can also be selected from the command line.
+    @Param({ Sources.TEXT, Sources.IMAGE })
+    public String content;
+
+    private String path;
+    private File output;
+    private BookOptions options;
+    private PDDocument source;
+    private PageIndex index;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        path = Sources.get(pages, content);
+        output = Files.createTempFile("booklet", ".pdf").toFile();
+        output.deleteOnExit();
+
+        options = new BookOptions();
+        options.set("paper", paper);
+        options.set("sheets", String.valueOf(sheets));
+
+        source = PDDocument.load(new File(path));
+        index = new PageIndex(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        source.close();
+        output.delete();
+    }
+
+    private static PDRectangle getPaper(String paper) {
+        switch (paper) {
+            case "A3":      return PDRectangle.A3;
+            case "A4":      return PDRectangle.A4;
+            case "Letter":  return PDRectangle.LETTER;
+        }
+
+        return PDRectangle.LETTER;
+    }
+
+    /**
+     * Compose every sheet side of the booklet into a new document, following
+     * the ImpositionPlan, as PDFBook does.
+     */
+    private PDDocument compose() throws IOException {
+        PDDocument target = new PDDocument();
+        SheetComposer composer = new SheetComposer(source, index, target, getPaper(paper));
+        ImpositionPlan plan = ImpositionPlan.of(sheets, 0, index.size(), true)
+            .place(getPaper(paper), index);
+
+        for (int sheet = 0; sheet < plan.getSheetCount(); ++sheet) {
+            composer.addSide(plan, sheet, ImpositionPlan.FRONT);
+            composer.addSide(plan, sheet, ImpositionPlan.BACK);
+        }
+
+        return target;
+    }
+
+    /**
+     * The complete job, as run by the GUI and the headless modes.
+     */
+    @Benchmark
+    public boolean genBooklet() {
+        return options.createBook(path, output.getPath()).genBooklet();
+    }
+
+    /**
+     * Import and place the source pages on every sheet side.
+     */
+    @Benchmark
+    public int composition() throws IOException {
+        try (PDDocument target = compose()) {
+            return target.getNumberOfPages();
+        }
+    }
+
+    /**
+     * A freshly composed booklet for each invocation of save(), as writing
+     * releases the pages.
+     */
+    @State(Scope.Thread)
+    public static class Composed {
+        private PDDocument doc;
+
+        @Setup(Level.Invocation)
+        public void setup(BookletBenchmark bench) throws IOException {
+            doc = bench.compose();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            doc.close();
+        }
+    }
+
+    /**
+     * Write a composed booklet to disc.
+     */
+    @Benchmark
+    public int save(Composed composed) throws IOException {
+        final PDDocument doc = composed.doc;
+        try (StreamingWriter writer = new StreamingWriter(output.getPath(), doc.getVersion())) {
+            for (PDPage page : doc.getPages()) {
+                writer.writePage(page);
+            }
+            writer.finish(doc);
+
+            return writer.getPageCount();
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CorpusGenerator is the class that creates synthetic source PDFs for
+ * performance testing, so that benchmarks can run offline on a fixed corpus
+ * rather than on customer documents. Everything is derived from the seed, so
+ * the same settings always produce the same file, byte for byte.
+ *
+ * The generated pages can be of a single size or a mix of sizes, optionally
+ * with crop boxes, use one shared font or a separate embedded copy of the
+ * font per page (as documents assembled from separately exported chapters
+ * do, using the Liberation Sans font bundled with PDFBox by default), and
+ * carry an embedded image of a chosen size, either one image shared by every
+ * page or a different image per page.
+ */
+package phillockett65.PDFBookGen.Benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+public class CorpusGenerator {
+
+    private static final PDRectangle[] SIZES = {
+        PDRectangle.A4, PDRectangle.A5, PDRectangle.LETTER, PDRectangle.LEGAL
+    };
+
+    // Embedded for unique fonts, bundled with PDFBox so no font file is needed.
+    private static final String BUNDLED_FONT =
+        "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf";
+
+    private static final String[] WORDS = {
+        "booklet", "signature", "sheet", "page", "fold", "binding", "paper",
+        "margin", "section", "imposition", "print", "quire", "spine", "cover"
+    };
+
+    private static final String USAGE =
+        "Usage: CorpusGenerator [options] output.pdf\n" +
+        "  --pages=N                   number of pages (100).\n" +
+        "  --seed=N                    seed for all content (1).\n" +
+        "  --sizes=uniform|mixed       page sizes (uniform A4).\n" +
+        "  --crop=true|false           add crop boxes to some pages (false).\n" +
+        "  --fonts=shared|unique       one font or an embedded copy per page (shared).\n" +
+        "  --font-file=file.ttf        embed this font instead of the default.\n" +
+        "  --image=N                   image width and height in pixels, 0 for none (0).\n" +
+        "  --images=shared|unique      one image or an image per page (unique).\n" +
+        "  --lines=N                   lines of text per page (40).\n";
+
+    private int pages = 100;
+    private long seed = 1;
+    private boolean mixedSizes = false;
+    private boolean cropBoxes = false;
+    private boolean uniqueFonts = false;
+    private File fontFile = null;
+    private int imageSize = 0;
+    private boolean uniqueImages = true;
+    private int lines = 40;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the CorpusGenerator.
+     */
+
+    /**
+     * Default constructor, generates 100 uniform A4 pages of text.
+     */
+    public CorpusGenerator() {
+    }
+
+    public void setPages(int count) { pages = count; }
+    public void setSeed(long value) { seed = value; }
+    public void setMixedSizes(boolean state) { mixedSizes = state; }
+    public void setCropBoxes(boolean state) { cropBoxes = state; }
+    public void setUniqueFonts(boolean state) { uniqueFonts = state; }
+    public void setFontFile(File file) { fontFile = file; }
+    public void setImageSize(int pixels) { imageSize = pixels; }
+    public void setUniqueImages(boolean state) { uniqueImages = state; }
+    public void setLines(int count) { lines = count; }
+
+    /**
+     * @return a file name stem that identifies these settings.
+     */
+    public String getName() {
+        return "p" + pages + "-s" + seed +
+            (mixedSizes ? "-mixed" : "") +
+            (cropBoxes ? "-crop" : "") +
+            (uniqueFonts ? "-ufont" + (fontFile == null ? "-lsans" : "") : "") +
+            (fontFile != null ? "-" + fontFile.getName().replace('.', '_') : "") +
+            (imageSize > 0 ? (uniqueImages ? "-uimg" : "-simg") + imageSize : "") +
+            "-l" + lines;
+    }
+
+
+
+    /************************************************************************
+     * Support code for generating content.
+     */
+
+    private PDFont createFont(PDDocument doc) throws IOException {
+        if (fontFile != null) {
+            // Not subset, so that every copy is the same.
+            try (InputStream stream = new FileInputStream(fontFile)) {
+                return PDType0Font.load(doc, stream, false);
+            }
+        }
+
+        if (!uniqueFonts) {
+            return PDType1Font.HELVETICA;
+        }
+
+        // A separate, but identical, embedded font, not subset so that every
+        // copy is the same.
+        try (InputStream stream = PDDocument.class.getResourceAsStream(BUNDLED_FONT)) {
+            if (stream == null) {
+                throw new IOException("Missing bundled font " + BUNDLED_FONT);
+            }
+
+            return PDType0Font.load(doc, stream, false);
+        }
+    }
+
+    private PDImageXObject createImage(PDDocument doc, Random random)
+            throws IOException {
+        BufferedImage image = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_RGB);
+
+        // Smooth gradients with noise, roughly as compressible as a photo.
+        final int r = random.nextInt(256);
+        final int g = random.nextInt(256);
+        final int b = random.nextInt(256);
+        for (int y = 0; y < imageSize; ++y) {
+            for (int x = 0; x < imageSize; ++x) {
+                final int noise = random.nextInt(32);
+                final int red = (r + x * 255 / imageSize + noise) & 0xFF;
+                final int green = (g + y * 255 / imageSize + noise) & 0xFF;
+                final int blue = (b + (x + y) * 127 / imageSize) & 0xFF;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+
+        return LosslessFactory.createFromImage(doc, image);
+    }
+
+    private String createLine(Random random, int pn, int ln) {
+        StringBuilder text = new StringBuilder();
+        text.append(pn).append('.').append(ln);
+        for (int w = 0; w < 10; ++w) {
+            text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Generate a source PDF.
+     *
+     * @param file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void generate(File file) throws IOException {
+        Random random = new Random(seed);
+
+        try (PDDocument doc = new PDDocument()) {
+            // Fixes the generated file identifier, so the output is repeatable.
+            doc.setDocumentId(seed);
+
+            PDFont shared = uniqueFonts ? null : createFont(doc);
+            PDImageXObject logo = null;
+            if (imageSize > 0 && !uniqueImages) {
+                logo = createImage(doc, random);
+            }
+
+            for (int pn = 1; pn <= pages; ++pn) {
+                final PDRectangle size = mixedSizes ? SIZES[random.nextInt(SIZES.length)] : PDRectangle.A4;
+                final float w = size.getWidth();
+                final float h = size.getHeight();
+
+                PDPage page = new PDPage(size);
+                if (cropBoxes && random.nextInt(4) == 0) {
+                    final float margin = 18 + random.nextInt(36);
+                    page.setCropBox(new PDRectangle(margin, margin, w - 2 * margin, h - 2 * margin));
+                }
+                doc.addPage(page);
+
+                PDFont font = uniqueFonts ? createFont(doc) : shared;
+                try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                    if (imageSize > 0) {
+                        PDImageXObject image = uniqueImages ? createImage(doc, random) : logo;
+                        final float side = Math.min(w, h) / 2;
+                        stream.drawImage(image, (w - side) / 2, (h - side) / 2, side, side);
+                    }
+
+                    stream.beginText();
+                    stream.setFont(font, 10);
+                    stream.setLeading(12);
+                    stream.newLineAtOffset(72, h - 72);
+                    final int fit = Math.min(lines, (int)((h - 144) / 12));
+                    for (int ln = 1; ln <= fit; ++ln) {
+                        stream.showText(createLine(random, pn, ln));
+                        stream.newLine();
+                    }
+                    stream.endText();
+                }
+            }
+
+            doc.save(file);
+        }
+    }
+
+    /**
+     * Generate a source PDF into a corpus directory, unless it already exists.
+     *
+     * @param dir corpus directory.
+     * @return the generated (or existing) file.
+     * @throws IOException if the file cannot be written.
+     */
+    public File generateInto(File dir) throws IOException {
+        File file = new File(dir, getName() + ".pdf");
+        if (!file.isFile()) {
+            dir.mkdirs();
+            File part = new File(dir, file.getName() + ".part");
+            generate(part);
+            if (!part.renameTo(file)) {
+                throw new IOException("Unable to create " + file);
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * System entry point, generates a single source PDF.
+     *
+     * @param args the command line arguments, see USAGE.
+     */
+    public static void main(String[] args) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        String output = null;
+
+        try {
+            for (String arg : args) {
+                final int split = arg.indexOf('=');
+                final String value = split < 0 ? "" : arg.substring(split + 1);
+                if (arg.startsWith("--pages=")) {
+                    generator.setPages(Integer.parseInt(value));
+                } else if (arg.startsWith("--seed=")) {
+                    generator.setSeed(Long.parseLong(value));
+                } else if (arg.startsWith("--sizes=")) {
+                    generator.setMixedSizes(value.equals("mixed"));
+                } else if (arg.startsWith("--crop=")) {
+                    generator.setCropBoxes(Boolean.parseBoolean(value));
+                } else if (arg.startsWith("--fonts=")) {
+                    generator.setUniqueFonts(value.equals("unique"));
+                } else if (arg.startsWith("--font-file=")) {
+                    generator.setFontFile(new File(value));
+                } else if (arg.startsWith("--image=")) {
+                    generator.setImageSize(Integer.parseInt(value));
+                } else if (arg.startsWith("--images=")) {
+                    generator.setUniqueImages(!value.equals("shared"));
+                } else if (arg.startsWith("--lines=")) {
+                    generator.setLines(Integer.parseInt(value));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else {
+                    output = arg;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            output = null;
+        }
+
+        if (output == null) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        generator.generate(new File(output));
+    }
+
+}
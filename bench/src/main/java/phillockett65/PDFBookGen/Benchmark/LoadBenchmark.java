@@ -0,0 +1,111 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LoadBenchmark is the class that benchmarks the phases of generation that
+ * depend only on the source: loading and indexing it, and importing every
+ * page as a form XObject.
+ */
+package phillockett65.PDFBookGen.Benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.multipdf.LayerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import phillockett65.PDFBookGen.PageIndex;
+import phillockett65.PDFBookGen.ResourceDedup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int pages;
+
+    // Sources.CHAPTERS can also be selected from the command line.
+    @Param({ Sources.TEXT, Sources.IMAGE })
+    public String content;
+
+    private String path;
+    private PDDocument source;
+    private PageIndex index;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        path = Sources.get(pages, content);
+        source = PDDocument.load(new File(path));
+        index = new PageIndex(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Parse the source and index its pages.
+     */
+    @Benchmark
+    public int load() throws IOException {
+        try (PDDocument doc = PDDocument.load(new File(path))) {
+            return new PageIndex(doc).size();
+        }
+    }
+
+    /**
+     * Import every source page as a form XObject, as SheetComposer does.
+     */
+    @Benchmark
+    public void importForms(Blackhole bh) throws IOException {
+        try (PDDocument target = new PDDocument()) {
+            LayerUtility layer = new LayerUtility(target);
+            ResourceDedup dedup = new ResourceDedup();
+            for (int pn = 0; pn < index.size(); ++pn) {
+                PDFormXObject form = layer.importPageAsForm(source, index.getPage(pn));
+                dedup.dedup(form.getResources());
+                bh.consume(form);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Sources is the static class that provides the source PDFs used by the
+ * benchmarks, generated by the CorpusGenerator with fixed settings and seed.
+ * The corpus is written to the directory named by the "pdfbookgen.corpus"
+ * system property, and reused by later runs, or if that is not set to a temp
+ * directory that is deleted on exit.
+ *
+ * Content types:
+ *  text     - mixed page sizes with some crop boxes, one shared font.
+ *  image    - as text, plus a different 256 pixel image on every page.
+ *  chapters - as text, but an embedded copy of a font on every page and one
+ *             shared 512 pixel image, like a book assembled from exported
+ *             chapters.
+ */
+package phillockett65.PDFBookGen.Benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Sources {
+
+    public static final String TEXT = "text";
+    public static final String IMAGE = "image";
+    public static final String CHAPTERS = "chapters";
+
+    private static final long SEED = 65;
+
+    private static final Map<String, String> sources = new HashMap<>();
+    private static File dir = null;
+
+
+    /**
+     * Private default constructor - static class, not instantiated.
+     */
+    private Sources() {
+    }
+
+    private static File getDirectory() throws IOException {
+        if (dir == null) {
+            final String corpus = System.getProperty("pdfbookgen.corpus");
+            if (corpus != null && !corpus.isBlank()) {
+                dir = new File(corpus);
+            } else {
+                dir = Files.createTempDirectory("pdfbookgen-corpus").toFile();
+                dir.deleteOnExit();
+            }
+        }
+
+        return dir;
+    }
+
+    /**
+     * Get a source PDF, generating it if needed.
+     *
+     * @param pages number of pages.
+     * @param content TEXT, IMAGE or CHAPTERS.
+     * @return the file path of the source.
+     * @throws IOException if the source cannot be generated.
+     */
+    public static synchronized String get(int pages, String content)
+            throws IOException {
+        final String key = content + "-" + pages;
+        String path = sources.get(key);
+        if (path != null) {
+            return path;
+        }
+
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setPages(pages);
+        generator.setSeed(SEED);
+        generator.setMixedSizes(true);
+        generator.setCropBoxes(true);
+
+        if (IMAGE.equals(content)) {
+            generator.setImageSize(256);
+            generator.setLines(10);
+        } else if (CHAPTERS.equals(content)) {
+            generator.setUniqueFonts(true);
+            generator.setImageSize(512);
+            generator.setUniqueImages(false);
+        } else if (!TEXT.equals(content)) {
+            throw new IllegalArgumentException("Unknown content: " + content);
+        }
+
+        final boolean temp = System.getProperty("pdfbookgen.corpus") == null;
+        File file = generator.generateInto(getDirectory());
+        if (temp) {
+            file.deleteOnExit();
+        }
+
+        path = file.getPath();
+        sources.put(key, path);
+
+        return path;
+    }
+
+}
@@ -0,0 +1,395 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Batch is the class that generates booklets for many PDFs without the GUI.
+ * The source files are given as paths, glob patterns (such as "manuals/*.pdf"
+ * or "manuals/**.pdf") or "@list" files holding one path per line. Every file
+ * is imposed with the same BookOptions, on a fixed pool of worker threads,
+ * and a summary line is printed for each file once all jobs are done.
+ *
+ * Concurrent jobs must not write the same file, so a source listed more than
+ * once is only imposed once, and sources whose names would give the same 
+ * output (such as "a/manual.pdf" and "b/manual.pdf" with --out) have a 
+ * number added to the output name. Either is noted in the summary.
+ *
+ * A dry run writes the ImpositionPlan of each file as JSON, next to where
+ * the booklet would be written, instead of generating the booklet.
+ */
+package phillockett65.PDFBookGen.Headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import phillockett65.Debug.Debug;
+import phillockett65.PDFBookGen.BookOptions;
+import phillockett65.PDFBookGen.PDFBook;
+
+public class Batch {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private static final String USAGE =
+        "Usage: Batch [options] file|glob|@list ...\n" +
+        "Batch options:\n" +
+        "  --workers=N                 files imposed concurrently (cores).\n" +
+        "  --out=directory             output directory (source directory).\n" +
+        "  --suffix=text               added to output file names (-booklet).\n" +
+        "  --dry-run=true|false        write the plan of each file as JSON (false).\n" +
+        "Booklet options:\n" + BookOptions.USAGE;
+
+    private final BookOptions options;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private String outDir = "";
+    private String suffix = "-booklet";
+    private boolean dryRun = false;
+
+
+    /**
+     * The outcome of a single file.
+     */
+    public static class Result {
+        public final String source;
+        public final String output;
+        public final boolean success;
+        public final int pages;
+        public final long millis;
+        public final String message;
+
+        public Result(String source, String output, boolean success, int pages,
+                long millis, String message) {
+            this.source = source;
+            this.output = output;
+            this.success = success;
+            this.pages = pages;
+            this.millis = millis;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6s %8.2fs %6d pages  %s -> %s%s",
+                success ? "OK" : "FAILED", millis / 1000.0, pages, source, output,
+                message.isEmpty() ? "" : "  (" + message + ")");
+        }
+    }
+
+
+    /************************************************************************
+     * Support code for the Initialization of the Batch.
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param options applied to every file.
+     */
+    public Batch(BookOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @param count of files imposed concurrently.
+     */
+    public void setWorkers(int count) { workers = Math.max(1, count); }
+
+    /**
+     * @param dir for the generated files, blank for the source directory.
+     */
+    public void setOutputDirectory(String dir) { outDir = dir; }
+
+    /**
+     * @param text added to the file name stem of each generated file.
+     */
+    public void setSuffix(String text) { suffix = text; }
+
+    /**
+     * @param state true to write the plan of each file instead of the booklet.
+     */
+    public void setDryRun(boolean state) { dryRun = state; }
+
+
+
+    /************************************************************************
+     * Support code for finding source files.
+     */
+
+    /**
+     * Expand a path, glob pattern or "@list" file into the matching files.
+     *
+     * @param spec to expand.
+     * @return the matching files, in name order for globs.
+     * @throws IOException if a directory or list cannot be read.
+     */
+    public static List<String> expand(String spec) throws IOException {
+        List<String> files = new ArrayList<>();
+
+        if (spec.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(spec.substring(1)))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    files.addAll(expand(line));
+                }
+            }
+
+            return files;
+        }
+
+        if (spec.indexOf('*') < 0 && spec.indexOf('?') < 0 && spec.indexOf('[') < 0) {
+            files.add(spec);
+
+            return files;
+        }
+
+        // Walk from the deepest directory without wildcards.
+        String base = spec.replace('\\', '/');
+        int cut = base.length();
+        for (char c : new char[] { '*', '?', '[', '{' }) {
+            final int i = base.indexOf(c);
+            if (i >= 0 && i < cut) {
+                cut = i;
+            }
+        }
+        cut = base.lastIndexOf('/', cut);
+        final Path root = Paths.get(cut < 0 ? "." : base.substring(0, Math.max(cut, 1)));
+        final String pattern = cut < 0 ? base : base.substring(cut + 1);
+
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        final int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+
+        try (Stream<Path> paths = Files.walk(root, depth)) {
+            files.addAll(paths
+                .filter(Files::isRegularFile)
+                .filter(path -> matcher.matches(root.relativize(path)))
+                .map(Path::toString)
+                .sorted()
+                .collect(Collectors.toList()));
+        }
+
+        return files;
+    }
+
+    /**
+     * Derive the output file path for a source file.
+     *
+     * @param source file path.
+     * @return the output file path.
+     */
+    public String getOutputPath(String source) {
+        return getOutputPath(source, "");
+    }
+
+    private String getOutputPath(String source, String number) {
+        File file = new File(source);
+        String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+
+        File dir = outDir.isBlank() ? file.getAbsoluteFile().getParentFile() : new File(outDir);
+
+        return new File(dir, name + suffix + number + (dryRun ? ".json" : ".pdf")).getPath();
+    }
+
+    private static String keyOf(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+
+
+    /************************************************************************
+     * Support code for running jobs.
+     */
+
+    /**
+     * Impose a single file.
+     *
+     * @param source file path.
+     * @param output file path.
+     * @param note for the summary if the file is imposed, blank for none.
+     * @return the outcome.
+     */
+    private Result impose(String source, String output, String note) {
+        final long start = System.nanoTime();
+        int pages = 0;
+        boolean success = false;
+        String message = note;
+
+        try {
+            if (!new File(source).isFile()) {
+                message = "not a file";
+            } else {
+                PDFBook book = options.createBook(source, output);
+                pages = book.getLastPage() - book.getFirstPage();
+                if (dryRun) {
+                    Files.write(Paths.get(output),
+                        book.getPlan().toJson().getBytes(StandardCharsets.UTF_8));
+                    success = true;
+                } else {
+                    success = book.genBooklet();
+                    if (!success) {
+                        message = "generation failed, see log";
+                    }
+                }
+            }
+        } catch (IOException e) {
+            message = e.getMessage();
+            Debug.critical(DD, "%s: %s", source, message);
+        } catch (RuntimeException e) {
+            message = e.toString();
+            Debug.critical(DD, "%s: %s", source, message);
+        }
+
+        final long millis = (System.nanoTime() - start) / 1000000;
+
+        return new Result(source, output, success, pages, millis, message);
+    }
+
+    /**
+     * Impose every file on the worker pool.
+     *
+     * @param sources file paths.
+     * @return the outcomes, in the same order as the sources.
+     */
+    public List<Result> run(List<String> sources) {
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<Result>> futures = new ArrayList<>();
+        Map<String, String> outputs = new HashMap<>();  // Output to source.
+        Map<String, String> imposed = new HashMap<>();  // Source to output.
+        for (String source : sources) {
+            final String previous = imposed.get(keyOf(source));
+            if (previous != null) {
+                futures.add(CompletableFuture.completedFuture(new Result(source, previous,
+                    true, 0, 0, "listed more than once, imposed once")));
+                continue;
+            }
+
+            String output = getOutputPath(source);
+            String note = "";
+            final String first = outputs.get(keyOf(output));
+            for (int n = 2; outputs.containsKey(keyOf(output)); ++n) {
+                output = getOutputPath(source, "-" + n);
+                note = "renamed, output name shared with " + first;
+            }
+            outputs.put(keyOf(output), source);
+            imposed.put(keyOf(source), output);
+
+            final String target = output;
+            final String renamed = note;
+            futures.add(executor.submit(() -> impose(source, target, renamed)));
+        }
+        executor.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                results.add(new Result(sources.get(i), "", false, 0, 0, e.getCause().toString()));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * System entry point for batch mode.
+     *
+     * @param args the command line arguments, see USAGE.
+     */
+    public static void main(String[] args) throws IOException {
+        BookOptions options = new BookOptions();
+        Batch batch = new Batch(options);
+        List<String> sources = new ArrayList<>();
+
+        try {
+            for (String arg : args) {
+                if (options.parse(arg)) {
+                    continue;
+                }
+
+                if (arg.startsWith("--workers=")) {
+                    batch.setWorkers(Integer.parseInt(arg.substring(10)));
+                } else if (arg.startsWith("--out=")) {
+                    batch.setOutputDirectory(arg.substring(6));
+                } else if (arg.startsWith("--suffix=")) {
+                    batch.setSuffix(arg.substring(9));
+                } else if (arg.startsWith("--dry-run=")) {
+                    batch.setDryRun(Boolean.parseBoolean(arg.substring(10)));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else {
+                    sources.addAll(expand(arg));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        if (sources.isEmpty()) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        final long start = System.nanoTime();
+        List<Result> results = batch.run(sources);
+        final long millis = (System.nanoTime() - start) / 1000000;
+
+        int failed = 0;
+        for (Result result : results) {
+            System.out.println(result);
+            if (!result.success) {
+                ++failed;
+            }
+        }
+        System.out.printf("%d files, %d failed, %.2fs with %d workers%n",
+            results.size(), failed, millis / 1000.0, batch.workers);
+
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+}
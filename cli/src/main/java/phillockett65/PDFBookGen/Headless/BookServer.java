@@ -0,0 +1,363 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BookServer is the class that provides booklet generation as a local HTTP
+ * service, using the JDK HTTP server. A client POSTs the source PDF as the
+ * request body to /booklet, with any of the content options (paper, sheets,
+ * first, last, rotate, layers and compress) as query parameters, and the
+ * generated booklet is streamed back as the response:
+ *
+ *  curl --data-binary @manual.pdf -o booklet.pdf \
+ *      "http://localhost:8080/booklet?paper=A4&sheets=4"
+ *
+ * The options that decide the resources a job uses (memory, max-heap,
+ * scratch and threads) can only be set when the server is started.
+ *
+ * Jobs run on a fixed pool of workers with a bounded queue. When the queue is
+ * full the request is refused with 429 (Too Many Requests) before the upload
+ * is read. GET /health returns 200 while the server is running.
+ */
+package phillockett65.PDFBookGen.Headless;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import phillockett65.Debug.Debug;
+import phillockett65.PDFBookGen.BookOptions;
+
+public class BookServer {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private static final String USAGE =
+        "Usage: BookServer [options]\n" +
+        "Server options:\n" +
+        "  --port=N                    port to listen on, 0 for any (8080).\n" +
+        "  --bind=address              address to listen on (127.0.0.1).\n" +
+        "  --workers=N                 requests imposed concurrently (cores).\n" +
+        "  --queue=N                   requests waiting for a worker (2 x workers).\n" +
+        "  --max-upload=MB             largest source PDF accepted (256).\n" +
+        "  --temp=directory            directory for uploads (system temp).\n" +
+        "Default booklet options:\n" + BookOptions.USAGE;
+
+    // The BookOptions a request may set.
+    private static final Set<String> REQUEST_OPTIONS =
+        Set.of("paper", "sheets", "first", "last", "rotate", "layers", "compress");
+
+    private final BookOptions defaults;
+    private final long maxUpload;
+    private final Path tempDir;
+
+    private final HttpServer server;
+    private final ExecutorService dispatcher;
+    private final ThreadPoolExecutor executor;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the BookServer.
+     */
+
+    /**
+     * Constructor. The server is bound but not started.
+     *
+     * @param address to listen on, port 0 picks a free port.
+     * @param defaults options used unless overridden by query parameters.
+     * @param workers number of concurrent jobs.
+     * @param queue number of jobs waiting for a worker.
+     * @param maxUpload largest accepted source in bytes.
+     * @param tempDir directory for uploads and results, null for the default.
+     * @throws IOException if the address cannot be bound.
+     */
+    public BookServer(InetSocketAddress address, BookOptions defaults,
+            int workers, int queue, long maxUpload, Path tempDir)
+            throws IOException {
+        this.defaults = defaults;
+        this.maxUpload = maxUpload;
+        this.tempDir = tempDir;
+
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queue)));
+
+        // Requests are only handed on by the dispatcher, so 1 thread will do.
+        dispatcher = Executors.newSingleThreadExecutor();
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(dispatcher);
+        server.createContext("/booklet", this::submit);
+        server.createContext("/health", exchange -> respond(exchange, 200, "OK\n"));
+    }
+
+    /**
+     * @return the port the server is listening on.
+     */
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+        Debug.info(DD, "BookServer listening on %s", server.getAddress());
+    }
+
+    /**
+     * Stop accepting requests, and wait for the jobs already accepted.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.shutdown();
+    }
+
+
+
+    /************************************************************************
+     * Support code for handling requests.
+     */
+
+    private static void respond(HttpExchange exchange, int status, String text)
+            throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Get the options of a request from its query.
+     *
+     * @throws IllegalArgumentException if an option may not be set by a
+     * request.
+     */
+    private static Map<String, String> getParameters(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+
+        for (String pair : query.split("&")) {
+            final int split = pair.indexOf('=');
+            if (split > 0) {
+                final String name = URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8);
+                if (!REQUEST_OPTIONS.contains(name)) {
+                    throw new IllegalArgumentException("Option not allowed: " + name);
+                }
+                params.put(name, URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return params;
+    }
+
+    /**
+     * Hand a request to the worker pool, or refuse it if the queue is full.
+     * Runs on the dispatcher thread, so must not block.
+     */
+    private void submit(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            respond(exchange, 405, "POST the source PDF to /booklet\n");
+
+            return;
+        }
+
+        try {
+            executor.execute(() -> generate(exchange));
+        } catch (RejectedExecutionException e) {
+            Debug.warning(DD, "Busy, refused request from %s", exchange.getRemoteAddress());
+            exchange.getResponseHeaders().set("Retry-After", "5");
+            respond(exchange, 429, "Too many requests, try again later\n");
+        }
+    }
+
+    /**
+     * Generate a booklet from the uploaded PDF and send it back. Runs on a
+     * worker thread.
+     */
+    private void generate(HttpExchange exchange) {
+        Path source = null;
+        Path output = null;
+
+        try {
+            BookOptions options = new BookOptions(defaults);
+            try {
+                options.load(getParameters(exchange.getRequestURI().getRawQuery()));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+
+                return;
+            }
+
+            source = tempDir == null ? Files.createTempFile("upload", ".pdf")
+                : Files.createTempFile(tempDir, "upload", ".pdf");
+            output = Paths.get(source + ".booklet.pdf");
+
+            if (!receive(exchange, source)) {
+                respond(exchange, 413, "Source PDF larger than " + maxUpload + " bytes\n");
+
+                return;
+            }
+
+            final long start = System.nanoTime();
+            final boolean success = options.createBook(source.toString(), output.toString()).genBooklet();
+            final long millis = (System.nanoTime() - start) / 1000000;
+            if (!success) {
+                respond(exchange, 422, "Unable to generate a booklet from the upload\n");
+
+                return;
+            }
+
+            Debug.info(DD, "Generated %d bytes in %dms", Files.size(output), millis);
+            exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+            exchange.sendResponseHeaders(200, Files.size(output));
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(output, out);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The detail may name server paths, so it is only logged.
+            Debug.critical(DD, "Request failed: %s", e);
+            try {
+                respond(exchange, 500, "Internal error, unable to generate the booklet\n");
+            } catch (IOException | RuntimeException ignored) {
+                // The response may already be under way.
+            }
+        } finally {
+            exchange.close();
+            delete(source);
+            delete(output);
+        }
+    }
+
+    /**
+     * Copy the request body to a file.
+     *
+     * @return false if the body exceeds the upload limit.
+     */
+    private boolean receive(HttpExchange exchange, Path file) throws IOException {
+        long total = 0;
+        try (InputStream in = exchange.getRequestBody();
+                OutputStream out = Files.newOutputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                total += n;
+                if (total > maxUpload) {
+                    return false;
+                }
+                out.write(buffer, 0, n);
+            }
+        }
+
+        return true;
+    }
+
+    private static void delete(Path path) {
+        if (path == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            Debug.major(DD, "Unable to delete %s: %s", path, e.getMessage());
+        }
+    }
+
+    /**
+     * System entry point for server mode.
+     *
+     * @param args the command line arguments, see USAGE.
+     */
+    public static void main(String[] args) throws IOException {
+        BookOptions options = new BookOptions();
+        String bind = "127.0.0.1";
+        int port = 8080;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        long maxUpload = 256;
+        Path temp = null;
+
+        try {
+            for (String arg : args) {
+                if (options.parse(arg)) {
+                    continue;
+                }
+
+                if (arg.startsWith("--port=")) {
+                    port = Integer.parseInt(arg.substring(7));
+                } else if (arg.startsWith("--bind=")) {
+                    bind = arg.substring(7);
+                } else if (arg.startsWith("--workers=")) {
+                    workers = Math.max(1, Integer.parseInt(arg.substring(10)));
+                } else if (arg.startsWith("--queue=")) {
+                    queue = Integer.parseInt(arg.substring(8));
+                } else if (arg.startsWith("--max-upload=")) {
+                    maxUpload = Long.parseLong(arg.substring(13));
+                } else if (arg.startsWith("--temp=")) {
+                    temp = Paths.get(arg.substring(7));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        if (queue < 0) {
+            queue = 2 * workers;
+        }
+
+        BookServer server = new BookServer(new InetSocketAddress(bind, port),
+            options, workers, queue, maxUpload * 1024 * 1024, temp);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+        server.start();
+    }
+
+}
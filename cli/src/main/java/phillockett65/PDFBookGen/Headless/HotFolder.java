@@ -0,0 +1,392 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * HotFolder is the class that runs as a long lived process, watching an inbox
+ * directory and generating a booklet for each PDF dropped into it. A file is
+ * only taken once its size and modification time have been stable for the
+ * settle period, so files still being copied in are left alone.
+ *
+ * The settings for a file are the command line options, overridden by a
+ * "booklet.properties" file in the inbox (read for each job, so the folder
+ * defaults can be changed while running), overridden by a sidecar properties
+ * file named after the PDF ("manual.properties" for "manual.pdf").
+ *
+ * The booklet is written to the outbox, then the source and its sidecar are
+ * moved to the "processed" (or on failure "failed") subdirectory of the
+ * inbox. Jobs run on a fixed pool of workers with a bounded queue, a full
+ * queue leaves files waiting in the inbox until there is room.
+ */
+package phillockett65.PDFBookGen.Headless;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import phillockett65.Debug.Debug;
+import phillockett65.PDFBookGen.BookOptions;
+
+public class HotFolder implements Closeable {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    public static final String DEFAULTS = "booklet.properties";
+    public static final String PROCESSED = "processed";
+    public static final String FAILED = "failed";
+
+    private static final String USAGE =
+        "Usage: HotFolder --inbox=directory --outbox=directory [options]\n" +
+        "Hot folder options:\n" +
+        "  --workers=N                 files imposed concurrently (cores).\n" +
+        "  --queue=N                   files waiting for a worker (2 x workers).\n" +
+        "  --settle=ms                 time a file must be unchanged (2000).\n" +
+        "Default booklet options:\n" + BookOptions.USAGE;
+
+    private final Path inbox;
+    private final Path outbox;
+    private final BookOptions defaults;
+    private final long settle;
+
+    private final ThreadPoolExecutor executor;
+    private final WatchService watcher;
+
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private final Set<Path> active = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+
+    /**
+     * A file seen in the inbox that is not yet known to be complete.
+     */
+    private static class Candidate {
+        private long size = -1;
+        private long modified = -1;
+        private long since = 0;
+    }
+
+
+    /************************************************************************
+     * Support code for the Initialization of the HotFolder.
+     */
+
+    /**
+     * Constructor. Creates the outbox and subdirectories if needed and starts
+     * watching the inbox.
+     *
+     * @param inbox directory to watch.
+     * @param outbox directory for the generated booklets.
+     * @param defaults options used unless overridden by properties files.
+     * @param workers number of concurrent jobs.
+     * @param queue number of jobs waiting for a worker.
+     * @param settle time in milliseconds a file must be unchanged.
+     * @throws IOException if a directory cannot be created or watched.
+     */
+    public HotFolder(Path inbox, Path outbox, BookOptions defaults,
+            int workers, int queue, long settle) throws IOException {
+        this.inbox = inbox;
+        this.outbox = outbox;
+        this.defaults = defaults;
+        this.settle = settle;
+
+        Files.createDirectories(outbox);
+        Files.createDirectories(inbox.resolve(PROCESSED));
+        Files.createDirectories(inbox.resolve(FAILED));
+
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queue)));
+
+        watcher = inbox.getFileSystem().newWatchService();
+        inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+
+
+    /************************************************************************
+     * Support code for watching the inbox.
+     */
+
+    private static boolean isPDF(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".pdf");
+    }
+
+    /**
+     * Note a possible source file, if it is not already known.
+     */
+    private void notice(Path path) {
+        if (isPDF(path) && !active.contains(path)) {
+            candidates.putIfAbsent(path, new Candidate());
+        }
+    }
+
+    /**
+     * Watch the inbox until close() is called or the thread is interrupted.
+     * Files already in the inbox are picked up too.
+     */
+    public void run() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox)) {
+            for (Path path : files) {
+                notice(path);
+            }
+        } catch (IOException e) {
+            Debug.major(DD, "Unable to scan %s: %s", inbox, e.getMessage());
+        }
+
+        Debug.info(DD, "Watching %s for PDFs, output to %s", inbox, outbox);
+
+        final long tick = Math.max(50, settle / 4);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.poll(tick, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents().forEach(event -> {
+                        if (event.context() instanceof Path) {
+                            notice(inbox.resolve((Path)event.context()));
+                        }
+                    });
+                    if (!key.reset()) {
+                        Debug.critical(DD, "Inbox no longer accessible: %s", inbox);
+                        break;
+                    }
+                }
+
+                checkCandidates();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed, so stop.
+        }
+    }
+
+    /**
+     * Submit any candidates that have been stable for the settle period.
+     */
+    private void checkCandidates() {
+        final long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Candidate>> it = candidates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Candidate> entry = it.next();
+            Path path = entry.getKey();
+            Candidate candidate = entry.getValue();
+
+            long size;
+            long modified;
+            try {
+                size = Files.size(path);
+                modified = Files.getLastModifiedTime(path).toMillis();
+            } catch (IOException e) {
+                // Gone (or renamed) before it settled.
+                it.remove();
+                continue;
+            }
+
+            if (size != candidate.size || modified != candidate.modified) {
+                candidate.size = size;
+                candidate.modified = modified;
+                candidate.since = now;
+                continue;
+            }
+
+            if (now - candidate.since < settle) {
+                continue;
+            }
+
+            try {
+                active.add(path);
+                executor.execute(() -> process(path));
+                it.remove();
+            } catch (RejectedExecutionException e) {
+                // Queue full, try again on the next tick.
+                active.remove(path);
+                return;
+            }
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for processing files.
+     */
+
+    private static String getStem(Path path) {
+        final String name = path.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static void loadProperties(Path path, BookOptions options)
+            throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            props.load(in);
+        }
+        options.load(props);
+    }
+
+    /**
+     * Generate the booklet for a source file and file the source away.
+     * Runs on a worker thread.
+     */
+    private void process(Path source) {
+        final String stem = getStem(source);
+        final Path sidecar = source.resolveSibling(stem + ".properties");
+        final Path output = outbox.resolve(stem + ".pdf");
+        boolean success = false;
+
+        try {
+            BookOptions options = new BookOptions(defaults);
+            loadProperties(inbox.resolve(DEFAULTS), options);
+            loadProperties(sidecar, options);
+
+            Debug.info(DD, "Processing %s with %s", source, options);
+            final long start = System.nanoTime();
+            success = options.createBook(source.toString(), output.toString()).genBooklet();
+            final long millis = (System.nanoTime() - start) / 1000000;
+
+            Debug.info(DD, "%s %s in %dms", success ? "Generated" : "Failed",
+                success ? output : source, millis);
+        } catch (IOException | RuntimeException e) {
+            Debug.critical(DD, "%s: %s", source, e);
+        }
+
+        final Path dir = inbox.resolve(success ? PROCESSED : FAILED);
+        move(source, dir);
+        move(sidecar, dir);
+        active.remove(source);
+    }
+
+    private static void move(Path path, Path dir) {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try {
+            Files.move(path, dir.resolve(path.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Debug.major(DD, "Unable to move %s: %s", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Stop watching, and wait for the jobs already queued to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * System entry point for hot folder mode.
+     *
+     * @param args the command line arguments, see USAGE.
+     */
+    public static void main(String[] args) throws IOException {
+        BookOptions options = new BookOptions();
+        String inbox = null;
+        String outbox = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        long settle = 2000;
+
+        try {
+            for (String arg : args) {
+                if (options.parse(arg)) {
+                    continue;
+                }
+
+                if (arg.startsWith("--inbox=")) {
+                    inbox = arg.substring(8);
+                } else if (arg.startsWith("--outbox=")) {
+                    outbox = arg.substring(9);
+                } else if (arg.startsWith("--workers=")) {
+                    workers = Math.max(1, Integer.parseInt(arg.substring(10)));
+                } else if (arg.startsWith("--queue=")) {
+                    queue = Integer.parseInt(arg.substring(8));
+                } else if (arg.startsWith("--settle=")) {
+                    settle = Long.parseLong(arg.substring(9));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        if (inbox == null || outbox == null) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        if (queue < 0) {
+            queue = 2 * workers;
+        }
+
+        HotFolder folder = new HotFolder(Paths.get(inbox), Paths.get(outbox),
+            options, workers, queue, settle);
+
+        final Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            main.interrupt();
+            try {
+                folder.close();
+            } catch (IOException e) {
+                Debug.major(DD, e.getMessage());
+            }
+        }));
+
+        folder.run();
+    }
+
+}
@@ -0,0 +1,224 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BookServerTest runs a BookServer on a free local port and drives it with
+ * java.net.http.HttpClient, covering a generated booklet, refused options,
+ * oversized uploads, a saturated server and the health check.
+ */
+package phillockett65.PDFBookGen.Headless;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import phillockett65.PDFBookGen.BookOptions;
+
+public class BookServerTest {
+
+    private static final int PAGES = 8;
+    private static byte[] source;
+
+    @TempDir
+    Path temp;
+
+    private final HttpClient client = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(10)).build();
+    private final List<Socket> sockets = new ArrayList<>();
+    private BookServer server;
+
+
+    /************************************************************************
+     * Support code for the tests.
+     */
+
+    /**
+     * Create a small source PDF with a numbered line of text on each page.
+     */
+    @BeforeAll
+    public static void createSource() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int pn = 1; pn <= PAGES; ++pn) {
+                PDPage page = new PDPage(PDRectangle.A5);
+                doc.addPage(page);
+                try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                    stream.beginText();
+                    stream.setFont(PDType1Font.HELVETICA, 24);
+                    stream.newLineAtOffset(72, 300);
+                    stream.showText("Page " + pn);
+                    stream.endText();
+                }
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            doc.save(out);
+            source = out.toByteArray();
+        }
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void startServer(int workers, int queue, long maxUpload)
+            throws IOException {
+        server = new BookServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+            new BookOptions(), workers, queue, maxUpload, temp);
+        server.start();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getPort() + path);
+    }
+
+    private HttpResponse<byte[]> post(String path, byte[] body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri(path))
+            .timeout(Duration.ofSeconds(30))
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Start a request that holds a worker (or a place in the queue) by
+     * sending its headers but not its body.
+     */
+    private void stall() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        sockets.add(socket);
+
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST /booklet HTTP/1.1\r\n" +
+            "Host: 127.0.0.1\r\n" +
+            "Content-Length: " + source.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+
+
+    /************************************************************************
+     * Tests.
+     */
+
+    @Test
+    public void generatesBooklet() throws Exception {
+        startServer(1, 1, 1024 * 1024);
+
+        HttpResponse<byte[]> response = post("/booklet?paper=A4&sheets=1", source);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("application/pdf",
+            response.headers().firstValue("Content-Type").orElse(""));
+        try (PDDocument booklet = PDDocument.load(response.body())) {
+            // 2 sheets, printed on both sides.
+            assertEquals(PAGES / 2, booklet.getNumberOfPages());
+            assertEquals(PDRectangle.A4.getWidth(), booklet.getPage(0).getMediaBox().getWidth(), 0.01);
+        }
+    }
+
+    @Test
+    public void refusesBadOption() throws Exception {
+        startServer(1, 1, 1024 * 1024);
+
+        assertEquals(400, post("/booklet?sheets=9", source).statusCode());
+        assertEquals(400, post("/booklet?paper=A44", source).statusCode());
+    }
+
+    @Test
+    public void refusesResourceOption() throws Exception {
+        startServer(1, 1, 1024 * 1024);
+
+        assertEquals(400, post("/booklet?threads=256", source).statusCode());
+        assertEquals(400, post("/booklet?scratch=/tmp", source).statusCode());
+    }
+
+    @Test
+    public void refusesOversizedUpload() throws Exception {
+        startServer(1, 1, source.length / 2);
+
+        assertEquals(413, post("/booklet", source).statusCode());
+    }
+
+    @Test
+    public void refusesWhenSaturated() throws Exception {
+        startServer(1, 1, 1024 * 1024);
+
+        // One request for the worker and one for the queue.
+        stall();
+        stall();
+
+        // The stalled requests may not have been dispatched yet, so retry.
+        int status = 0;
+        for (int attempt = 0; attempt < 50 && status != 429; ++attempt) {
+            Thread.sleep(100);
+            status = client.send(HttpRequest.newBuilder(uri("/booklet"))
+                    .timeout(Duration.ofSeconds(30))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(source)).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+        }
+
+        assertEquals(429, status);
+    }
+
+    @Test
+    public void reportsHealth() throws Exception {
+        startServer(1, 1, 1024 * 1024);
+
+        HttpResponse<String> response = client.send(
+            HttpRequest.newBuilder(uri("/health")).GET().build(),
+            HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("OK"));
+    }
+
+}
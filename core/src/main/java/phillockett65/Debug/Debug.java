@@ -0,0 +1,686 @@
+/*  Debug - a JavaFX package for logging diagnostics.
+ *
+ *  Copyright 2025 Philip Lockett.
+ *
+ *  This file is part of Debug.
+ *
+ *  Debug is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Debug is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Debug.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Debug is the static class that manages debug output. The static value LEVEL 
+ * defines the level of debug output for the entire application. Each call to 
+ * display debug must provide a delta adjustment. Positive values increase the 
+ * amount of debug generated, whereas negative values decrease it. Defining 
+ * and using a local debug delta attribute (such as DD) will adjust the amount 
+ * of debug displayed within the scope that DD is defined in. However, if local
+ * debug levels must be set irrespective of the value of LEVEL the value of DD
+ * can be set by calculating the delta for the absolute debugging level.
+ * 
+ * Examples:
+ * 1) if only critical debug is to be displayed use:
+ *      LEVEL = CRITICAL;
+ * 
+ * 2) if all debug up to trace level is to be displayed use:
+ *      LEVEL = TRACE;
+ * 
+ * 3) if all debug is to be displayed use:
+ *      LEVEL = ALL;
+ * 
+ * 4) if slightly more local debug for a class is to be displayed use:
+ *      DD = 1;
+ * 
+ * 5) if a lot more local debug for a class is to be displayed use a larger value:
+ *      DD = 5;
+ * 
+ * 6) if slightly less local debug for a class is to be displayed use:
+ *      DD = -1;
+ * 
+ * 7) if all debug, up to and including info, is to be displayed for a class use:
+ *      DD = infoLevel();
+ *
+ * Messages that need building should be passed as a format and arguments, or
+ * as a Supplier, so that nothing is formatted unless the level is enabled:
+ *      Debug.trace(DD, "Pages %s to %s", first, last);
+ *      Debug.trace(DD, () -> "Index " + index);
+ * Up to 3 arguments are passed without an array, but primitives are still 
+ * boxed, so hot paths with numeric arguments should use a Supplier.
+ *
+ * Messages can also be sent to a file, with setLogFile() or the system 
+ * property "phillockett65.debug.file". The file is written on a background 
+ * thread, so logging does not block on disc. Errors are still also shown.
+ */
+package phillockett65.Debug;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.function.Supplier;
+
+public class Debug {
+
+    private static final int NONE = 0;
+    private static final int CRITICAL = 1;
+    private static final int MAJOR = 2;
+    private static final int MINOR = 3;
+    private static final int WARNING = 4;
+    private static final int TRACE = 5;
+    private static final int INFO = 6;
+    private static final int ALL = 7;
+
+    // Debugging level for entire application.
+    private static final int LEVEL = MINOR;
+
+    // Messages buffered for the log file before any are dropped.
+    private static final int CAPACITY = 8192;
+
+    private static volatile LogSink sink = null;
+    private static boolean hooked = false;
+
+    static {
+        final String path = System.getProperty("phillockett65.debug.file");
+        if (path != null && !path.isBlank()) {
+            setLogFile(path);
+        }
+    }
+
+
+
+    /************************************************************************
+     * General support code.
+     */
+
+    private static int calcLevel(int level) { return level - LEVEL; }
+
+    private static String pre(int level) {
+        switch (level) {
+            case CRITICAL:  return "Critical error";
+            case MAJOR:     return "Major error";
+            case MINOR:     return "Minor error";
+            case WARNING:   return "Warning";
+            case TRACE:     return "Trace";
+            case INFO:      return "Info";
+        }
+
+        return "";
+    }
+
+    private static String formMessage(int level, String line) {
+        if (line == null) {
+            return "";
+        }
+
+        if (line.isEmpty()) {
+            return "";
+        }
+
+        return pre(level) + ": " + line;
+    }
+
+    private static boolean isEnabled(int level, int delta) {
+        return level-delta <= LEVEL;
+    }
+
+    private static void output(int level, String line) {
+        final String message = formMessage(level, line);
+        final LogSink file = sink;
+        if (file != null) {
+            file.offer(LocalTime.now() + " [" + Thread.currentThread().getName() + "] " + message);
+            if (level <= MAJOR)
+                System.err.println(message);
+        } else {
+            if (level <= MAJOR)
+                System.err.println(message);
+            else
+                System.out.println(message);
+        }
+    }
+
+    private static void display(int level, int delta, String line) {
+        if (isEnabled(level, delta)) {
+            output(level, line);
+        }
+    }
+
+    private static void display(int level, int delta, Supplier<String> line) {
+        if (isEnabled(level, delta)) {
+            output(level, line.get());
+        }
+    }
+
+    private static void display(int level, int delta, String format, Object... args) {
+        if (isEnabled(level, delta)) {
+            output(level, String.format(format, args));
+        }
+    }
+
+    // Fixed arity versions, so a disabled level allocates no argument array.
+    private static void display(int level, int delta, String format, Object a1) {
+        if (isEnabled(level, delta)) {
+            output(level, String.format(format, a1));
+        }
+    }
+
+    private static void display(int level, int delta, String format, Object a1, Object a2) {
+        if (isEnabled(level, delta)) {
+            output(level, String.format(format, a1, a2));
+        }
+    }
+
+    private static void display(int level, int delta, String format, Object a1, Object a2, Object a3) {
+        if (isEnabled(level, delta)) {
+            output(level, String.format(format, a1, a2, a3));
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the Initialization of the Model.
+     */
+
+    /**
+     * Private default constructor - part of the Singleton Design Pattern.
+     * Called at initialization only, constructs the single private instance.
+     */
+    private Debug() {
+    }
+
+
+
+    /************************************************************************
+     * Support code for static public interface.
+     */
+
+    /**
+     * Log Critical error messsage.
+     * 
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line to log
+     */
+    public static void critical(int delta, String line) {
+        display(CRITICAL, delta, line);
+    }
+
+    /**
+     * Log Critical error messsage, built only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line supplier of the line to log
+     */
+    public static void critical(int delta, Supplier<String> line) {
+        display(CRITICAL, delta, line);
+    }
+
+    /**
+     * Log Critical error messsage, formatted only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param args referenced by the format
+     */
+    public static void critical(int delta, String format, Object... args) {
+        display(CRITICAL, delta, format, args);
+    }
+
+    /**
+     * Log Critical error messsage with one argument, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 argument referenced by the format
+     */
+    public static void critical(int delta, String format, Object a1) {
+        display(CRITICAL, delta, format, a1);
+    }
+
+    /**
+     * Log Critical error messsage with two arguments, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     */
+    public static void critical(int delta, String format, Object a1, Object a2) {
+        display(CRITICAL, delta, format, a1, a2);
+    }
+
+    /**
+     * Log Critical error messsage with three arguments, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     * @param a3 third argument referenced by the format
+     */
+    public static void critical(int delta, String format, Object a1, Object a2, Object a3) {
+        display(CRITICAL, delta, format, a1, a2, a3);
+    }
+
+    /**
+     * Log Major error messsage.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line to log
+     */
+    public static void major(int delta, String line) {
+        display(MAJOR, delta, line);
+    }
+
+    /**
+     * Log Major error messsage, built only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line supplier of the line to log
+     */
+    public static void major(int delta, Supplier<String> line) {
+        display(MAJOR, delta, line);
+    }
+
+    /**
+     * Log Major error messsage, formatted only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param args referenced by the format
+     */
+    public static void major(int delta, String format, Object... args) {
+        display(MAJOR, delta, format, args);
+    }
+
+    /**
+     * Log Major error messsage with one argument, formatted only if the level
+     * is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 argument referenced by the format
+     */
+    public static void major(int delta, String format, Object a1) {
+        display(MAJOR, delta, format, a1);
+    }
+
+    /**
+     * Log Major error messsage with two arguments, formatted only if the level
+     * is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     */
+    public static void major(int delta, String format, Object a1, Object a2) {
+        display(MAJOR, delta, format, a1, a2);
+    }
+
+    /**
+     * Log Major error messsage with three arguments, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     * @param a3 third argument referenced by the format
+     */
+    public static void major(int delta, String format, Object a1, Object a2, Object a3) {
+        display(MAJOR, delta, format, a1, a2, a3);
+    }
+
+    /**
+     * Log Minor error messsage.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line to log
+     */
+    public static void minor(int delta, String line) {
+        display(MINOR, delta, line);
+    }
+
+    /**
+     * Log Minor error messsage, built only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line supplier of the line to log
+     */
+    public static void minor(int delta, Supplier<String> line) {
+        display(MINOR, delta, line);
+    }
+
+    /**
+     * Log Minor error messsage, formatted only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param args referenced by the format
+     */
+    public static void minor(int delta, String format, Object... args) {
+        display(MINOR, delta, format, args);
+    }
+
+    /**
+     * Log Minor error messsage with one argument, formatted only if the level
+     * is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 argument referenced by the format
+     */
+    public static void minor(int delta, String format, Object a1) {
+        display(MINOR, delta, format, a1);
+    }
+
+    /**
+     * Log Minor error messsage with two arguments, formatted only if the level
+     * is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     */
+    public static void minor(int delta, String format, Object a1, Object a2) {
+        display(MINOR, delta, format, a1, a2);
+    }
+
+    /**
+     * Log Minor error messsage with three arguments, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     * @param a3 third argument referenced by the format
+     */
+    public static void minor(int delta, String format, Object a1, Object a2, Object a3) {
+        display(MINOR, delta, format, a1, a2, a3);
+    }
+
+    /**
+     * Log Warning messsage.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line to log
+     */
+    public static void warning(int delta, String line) {
+        display(WARNING, delta, line);
+    }
+
+    /**
+     * Log Warning messsage, built only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line supplier of the line to log
+     */
+    public static void warning(int delta, Supplier<String> line) {
+        display(WARNING, delta, line);
+    }
+
+    /**
+     * Log Warning messsage, formatted only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param args referenced by the format
+     */
+    public static void warning(int delta, String format, Object... args) {
+        display(WARNING, delta, format, args);
+    }
+
+    /**
+     * Log Warning messsage with one argument, formatted only if the level is
+     * enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 argument referenced by the format
+     */
+    public static void warning(int delta, String format, Object a1) {
+        display(WARNING, delta, format, a1);
+    }
+
+    /**
+     * Log Warning messsage with two arguments, formatted only if the level is
+     * enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     */
+    public static void warning(int delta, String format, Object a1, Object a2) {
+        display(WARNING, delta, format, a1, a2);
+    }
+
+    /**
+     * Log Warning messsage with three arguments, formatted only if the level is
+     * enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     * @param a3 third argument referenced by the format
+     */
+    public static void warning(int delta, String format, Object a1, Object a2, Object a3) {
+        display(WARNING, delta, format, a1, a2, a3);
+    }
+
+    /**
+     * Log Trace messsage.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line to log
+     */
+    public static void trace(int delta, String line) {
+        display(TRACE, delta, line);
+    }
+
+    /**
+     * Log Trace messsage, built only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line supplier of the line to log
+     */
+    public static void trace(int delta, Supplier<String> line) {
+        display(TRACE, delta, line);
+    }
+
+    /**
+     * Log Trace messsage, formatted only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param args referenced by the format
+     */
+    public static void trace(int delta, String format, Object... args) {
+        display(TRACE, delta, format, args);
+    }
+
+    /**
+     * Log Trace messsage with one argument, formatted only if the level is
+     * enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 argument referenced by the format
+     */
+    public static void trace(int delta, String format, Object a1) {
+        display(TRACE, delta, format, a1);
+    }
+
+    /**
+     * Log Trace messsage with two arguments, formatted only if the level is
+     * enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     */
+    public static void trace(int delta, String format, Object a1, Object a2) {
+        display(TRACE, delta, format, a1, a2);
+    }
+
+    /**
+     * Log Trace messsage with three arguments, formatted only if the level is
+     * enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     * @param a3 third argument referenced by the format
+     */
+    public static void trace(int delta, String format, Object a1, Object a2, Object a3) {
+        display(TRACE, delta, format, a1, a2, a3);
+    }
+
+    /**
+     * Log Informational messsage.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line to log
+     */
+    public static void info(int delta, String line) {
+        display(INFO, delta, line);
+    }
+
+    /**
+     * Log Informational messsage, built only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param line supplier of the line to log
+     */
+    public static void info(int delta, Supplier<String> line) {
+        display(INFO, delta, line);
+    }
+
+    /**
+     * Log Informational messsage, formatted only if the level is enabled.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param args referenced by the format
+     */
+    public static void info(int delta, String format, Object... args) {
+        display(INFO, delta, format, args);
+    }
+
+    /**
+     * Log Informational messsage with one argument, formatted only if the level
+     * is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 argument referenced by the format
+     */
+    public static void info(int delta, String format, Object a1) {
+        display(INFO, delta, format, a1);
+    }
+
+    /**
+     * Log Informational messsage with two arguments, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     */
+    public static void info(int delta, String format, Object a1, Object a2) {
+        display(INFO, delta, format, a1, a2);
+    }
+
+    /**
+     * Log Informational messsage with three arguments, formatted only if the
+     * level is enabled, without allocating an array for the arguments.
+     * @param delta adjustment, +ve values increase the amount of debug 
+     *              generated, whereas -ve values decrease it.
+     * @param format of the line to log, as used by String.format()
+     * @param a1 first argument referenced by the format
+     * @param a2 second argument referenced by the format
+     * @param a3 third argument referenced by the format
+     */
+    public static void info(int delta, String format, Object a1, Object a2, Object a3) {
+        display(INFO, delta, format, a1, a2, a3);
+    }
+
+
+    /************************************************************************
+     * Calculate delta values for absolute debugging levels.
+     */
+
+    public static int noneLevel() { return calcLevel(NONE); }
+    public static int criticalLevel() { return calcLevel(CRITICAL); }
+    public static int majorLevel() { return calcLevel(MAJOR); }
+    public static int minorLevel() { return calcLevel(MINOR); }
+    public static int warningLevel() { return calcLevel(WARNING); }
+    public static int traceLevel() { return calcLevel(TRACE); }
+    public static int infoLevel() { return calcLevel(INFO); }
+    public static int allLevel() { return calcLevel(ALL); }
+
+
+
+    /************************************************************************
+     * Support code for the log file.
+     */
+
+    /**
+     * Send messages to a file instead of the console, appending to the file 
+     * if it exists. Errors are shown on the console as well. Any previous log 
+     * file is closed.
+     * 
+     * @param path of the log file, or null to return to the console.
+     * @return true if the file was opened (or path is null), false otherwise.
+     */
+    public static synchronized boolean setLogFile(String path) {
+        closeLogFile();
+        if (path == null) {
+            return true;
+        }
+
+        try {
+            sink = new LogSink(path, CAPACITY);
+            if (!hooked) {
+                // Write out what is buffered when the application exits.
+                Runtime.getRuntime().addShutdownHook(new Thread(Debug::closeLogFile));
+                hooked = true;
+            }
+        } catch (IOException e) {
+            System.err.println(formMessage(MAJOR, "Log file not opened: " + e.getMessage()));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Write any buffered messages and close the log file, if one is open.
+     */
+    public static synchronized void closeLogFile() {
+        final LogSink file = sink;
+        if (file != null) {
+            sink = null;
+            file.close();
+        }
+    }
+
+}
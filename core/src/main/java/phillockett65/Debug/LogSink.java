@@ -0,0 +1,189 @@
+/*  Debug - a JavaFX package for logging diagnostics.
+ *
+ *  Copyright 2025 Philip Lockett.
+ *
+ *  This file is part of Debug.
+ *
+ *  Debug is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Debug is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Debug.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LogSink is the class that writes debug messages to a file on a background
+ * thread. Messages are handed over through a fixed size ring buffer, so the
+ * logging thread never blocks on the file: if the buffer is full the message
+ * is dropped and counted, and the count is written when space is available.
+ *
+ * Any number of threads may log concurrently. Each claims a slot by advancing
+ * the tail, then publishes its message into the slot. The single writer
+ * thread takes messages from the head, in the order the slots were claimed.
+ */
+package phillockett65.Debug;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+class LogSink implements Runnable {
+
+    private static final long IDLE = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();  // Next slot to claim.
+    private volatile long head = 0;                     // Next slot to write.
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final BufferedWriter writer;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the LogSink.
+     */
+
+    /**
+     * Open the file for appending and start the writer thread.
+     *
+     * @param path of the log file.
+     * @param capacity of the ring buffer, rounded up to a power of 2.
+     * @throws IOException if the file cannot be opened.
+     */
+    LogSink(String path, int capacity) throws IOException {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+
+        writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        thread = new Thread(this, "Debug log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+
+    /************************************************************************
+     * Support code for logging threads.
+     */
+
+    /**
+     * Queue a message for writing without blocking.
+     *
+     * @param message to write.
+     * @return true if the message was queued, false if it was dropped 
+     * because the buffer is full or the sink is closed.
+     */
+    boolean offer(String message) {
+        while (running) {
+            final long claim = tail.get();
+            if (claim - head > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+
+            if (tail.compareAndSet(claim, claim + 1)) {
+                slots.set((int)claim & mask, message);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+
+    /************************************************************************
+     * Support code for the writer thread.
+     */
+
+    /**
+     * Write the queued messages, up to the first slot claimed but not yet
+     * published.
+     *
+     * @return the number of messages written.
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        for (;;) {
+            final int index = (int)head & mask;
+            final String message = slots.get(index);
+            if (message == null) {
+                break;
+            }
+
+            slots.set(index, null);
+            head = head + 1;
+            writer.write(message);
+            writer.newLine();
+            ++count;
+        }
+
+        final long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            writer.write("Debug: " + lost + " messages dropped");
+            writer.newLine();
+        }
+
+        return count;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running || head != tail.get()) {
+                if (drain() == 0) {
+                    writer.flush();
+                    if (!running) {
+                        // A claimed slot that will never be published.
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE);
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            running = false;
+            System.err.println("Debug log writer failed: " + e.getMessage());
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Nothing more can be logged.
+            }
+        }
+    }
+
+    /**
+     * Stop accepting messages, write those already queued and close the file.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
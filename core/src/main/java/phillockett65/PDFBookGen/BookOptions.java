@@ -0,0 +1,256 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BookOptions is a class that captures the settings of a PDFBook job for the
+ * headless modes. The settings can be set from "--name=value" command line
+ * arguments, from Properties (using the same names without the "--") or from
+ * name/value pairs such as request parameters, and are then applied to a new
+ * PDFBook.
+ */
+package phillockett65.PDFBookGen;
+
+import java.util.Map;
+import java.util.Properties;
+
+public class BookOptions {
+
+    public static final String USAGE =
+        "  --paper=A0..A6|Legal|Letter|Tabloid  output paper size (Letter).\n" +
+        "  --sheets=N                  sheets per signature, 1 to 6 (1).\n" +
+        "  --first=N                   first page to include, from 1 (1).\n" +
+        "  --last=N                    last page to include, 0 for the end (0).\n" +
+        "  --rotate=true|false         rotate the reverse side (true).\n" +
+        "  --layers=true|false         add each page as a layer (false).\n" +
+        "  --memory=heap|mixed|temp    where document data is buffered (heap).\n" +
+        "  --max-heap=MB               heap limit for mixed mode (256).\n" +
+        "  --scratch=directory         directory for temp files.\n" +
+        "  --threads=N                 impose signatures on N threads (1).\n" +
+        "  --compress=true|false       use compressed object streams (false).\n";
+
+    private String paperSize = "Letter";
+    private int sheetCount = 1;
+    private int firstPage = 1;
+    private int lastPage = 0;
+    private boolean rotate = true;
+    private boolean layers = false;
+    private String memoryMode = PDFBook.HEAP;
+    private long maxHeap = 256;
+    private String scratchDir = "";
+    private int threads = 1;
+    private boolean compress = false;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the BookOptions.
+     */
+
+    /**
+     * Default constructor.
+     */
+    public BookOptions() {
+    }
+
+    /**
+     * Copy constructor, used to derive job settings from defaults.
+     *
+     * @param other options to copy.
+     */
+    public BookOptions(BookOptions other) {
+        paperSize = other.paperSize;
+        sheetCount = other.sheetCount;
+        firstPage = other.firstPage;
+        lastPage = other.lastPage;
+        rotate = other.rotate;
+        layers = other.layers;
+        memoryMode = other.memoryMode;
+        maxHeap = other.maxHeap;
+        scratchDir = other.scratchDir;
+        threads = other.threads;
+        compress = other.compress;
+    }
+
+
+
+    /************************************************************************
+     * Support code for setting options.
+     */
+
+    /**
+     * Set an option by name.
+     *
+     * @param name of the option, without any leading "--".
+     * @param value of the option.
+     * @return true if the name is a known option, false otherwise.
+     * @throws IllegalArgumentException if the value is invalid.
+     */
+    public boolean set(String name, String value) {
+        value = value.trim();
+        switch (name) {
+            case "paper":       paperSize = toPaperSize(name, value);       break;
+            case "sheets":      sheetCount = toInt(name, value, 1, 6);      break;
+            case "first":       firstPage = toInt(name, value, 1, Integer.MAX_VALUE); break;
+            case "last":        lastPage = toInt(name, value, 0, Integer.MAX_VALUE); break;
+            case "rotate":      rotate = toBoolean(name, value);            break;
+            case "layers":      layers = toBoolean(name, value);            break;
+            case "memory":      memoryMode = toMemoryMode(name, value);     break;
+            case "max-heap":    maxHeap = toInt(name, value, 1, Integer.MAX_VALUE); break;
+            case "scratch":     scratchDir = value;                         break;
+            case "threads":     threads = toInt(name, value, 1, 256);       break;
+            case "compress":    compress = toBoolean(name, value);          break;
+
+            default:
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Set an option from a command line argument of the form "--name=value".
+     *
+     * @param arg command line argument.
+     * @return true if the argument is a known option, false otherwise.
+     * @throws IllegalArgumentException if the value is invalid.
+     */
+    public boolean parse(String arg) {
+        if (!arg.startsWith("--")) {
+            return false;
+        }
+
+        final int split = arg.indexOf('=');
+        if (split < 0) {
+            return false;
+        }
+
+        return set(arg.substring(2, split), arg.substring(split + 1));
+    }
+
+    /**
+     * Set the options found in the given properties, ignoring other keys.
+     *
+     * @param props to take options from.
+     * @throws IllegalArgumentException if a value is invalid.
+     */
+    public void load(Properties props) {
+        for (String name : props.stringPropertyNames()) {
+            set(name, props.getProperty(name));
+        }
+    }
+
+    /**
+     * Set the options found in the given map, ignoring other keys.
+     *
+     * @param params to take options from.
+     * @throws IllegalArgumentException if a value is invalid.
+     */
+    public void load(Map<String, String> params) {
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            set(param.getKey(), param.getValue());
+        }
+    }
+
+    private static int toInt(String name, String value, int min, int max) {
+        try {
+            final int number = Integer.parseInt(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+
+        throw new IllegalArgumentException("Invalid " + name + ": " + value);
+    }
+
+    private static String toPaperSize(String name, String value) {
+        final String size = PDFBook.toPaperSize(value);
+        if (size != null) {
+            return size;
+        }
+
+        throw new IllegalArgumentException("Invalid " + name + ": " + value);
+    }
+
+    private static String toMemoryMode(String name, String value) {
+        final String mode = PDFBook.toMemoryMode(value);
+        if (mode != null) {
+            return mode;
+        }
+
+        throw new IllegalArgumentException("Invalid " + name + ": " + value);
+    }
+
+    private static boolean toBoolean(String name, String value) {
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false") || value.equalsIgnoreCase("no")) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("Invalid " + name + ": " + value);
+    }
+
+
+
+    /************************************************************************
+     * Support code for applying options.
+     */
+
+    /**
+     * Create a PDFBook configured with these options.
+     *
+     * @param source file path for source PDF.
+     * @param output file path for generated PDF.
+     * @return the configured PDFBook.
+     */
+    public PDFBook createBook(String source, String output) {
+        PDFBook book = new PDFBook(source, output);
+
+        book.setPageSize(paperSize);
+        book.setSheetCount(sheetCount);
+        book.setRotate(rotate);
+        book.setUseLayers(layers);
+        book.setMemoryMode(memoryMode);
+        book.setMaxHeap(maxHeap);
+        book.setScratchDirectory(scratchDir);
+        book.setThreads(threads);
+        book.setCompress(compress);
+
+        if (lastPage > 0) {
+            book.setLastPage(lastPage);
+        }
+        book.setFirstPage(firstPage - 1);
+
+        return book;
+    }
+
+    @Override
+    public String toString() {
+        return "paper=" + paperSize + " sheets=" + sheetCount +
+            " first=" + firstPage + " last=" + lastPage +
+            " rotate=" + rotate + " layers=" + layers +
+            " memory=" + memoryMode + " max-heap=" + maxHeap +
+            " scratch=" + scratchDir + " threads=" + threads +
+            " compress=" + compress;
+    }
+
+}
@@ -0,0 +1,321 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DocumentCache is the static class that shares loaded source documents. A
+ * document is parsed once and then handed out as reference counted Handles to
+ * every user (the Model, PDFBook and page count probing). The document is
+ * closed when the last Handle is closed.
+ *
+ * Documents are keyed by canonical path, file size and modification time, so
+ * a source that is replaced on disc is loaded afresh rather than served stale.
+ * Holders of a Handle to the old version keep using it until they close it.
+ * The memory usage setting is part of the key too, so a job is never given a
+ * document buffered differently from how it asked, such as one held in main
+ * memory for a job that must use scratch files.
+ *
+ * PDDocument is not thread safe, so the shared document is only given to
+ * one Handle at a time. Anyone acquiring it while it is in use is given a
+ * private copy instead, loaded for them alone and closed with their Handle.
+ * A Handle from hold() keeps the document loaded, ready for the next user,
+ * without using it.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import phillockett65.Debug.Debug;
+
+public class DocumentCache {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private static final Map<Key, Entry> cache = new HashMap<>();
+
+
+    /************************************************************************
+     * Support code for cache entries.
+     */
+
+    /**
+     * Identifies a particular version of a file.
+     */
+    private static class Key {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String memory;    // Describes the MemoryUsageSetting.
+
+        private Key(File file, MemoryUsageSetting setting) throws IOException {
+            path = file.getCanonicalPath();
+            size = file.length();
+            modified = file.lastModified();
+            memory = (setting.useMainMemory() ? "M" + setting.getMaxMainMemoryBytes() : "") +
+                (setting.useTempFile() ? "T" + setting.getMaxStorageBytes() + " " + setting.getTempDir() : "");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key)other;
+
+            return size == key.size && modified == key.modified &&
+                path.equals(key.path) && memory.equals(key.memory);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() ^ Long.hashCode(size) ^ Long.hashCode(modified) ^
+                memory.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + size + " bytes, " + memory + ")";
+        }
+    }
+
+    /**
+     * A loaded (or loading) document and the count of Handles referring to it.
+     */
+    private static class Entry {
+        private final Key key;
+        private final File file;
+        private final MemoryUsageSetting setting;
+        private PDDocument doc = null;
+        private int refs = 0;
+        private boolean inUse = false;  // Given to a Handle from acquire()?
+
+        private Entry(Key key, File file, MemoryUsageSetting setting) {
+            this.key = key;
+            this.file = file;
+            this.setting = setting;
+        }
+
+        /**
+         * Load the document if this is the first user. Entries are locked
+         * individually so that different files can load concurrently.
+         */
+        private synchronized PDDocument load() throws IOException {
+            if (doc == null) {
+                Debug.trace(DD, "DocumentCache load %s", key);
+                doc = PDDocument.load(file, setting);
+            }
+
+            return doc;
+        }
+
+        private synchronized void close() {
+            if (doc == null) {
+                return;
+            }
+
+            Debug.trace(DD, "DocumentCache close %s", key);
+            try {
+                doc.close();
+            } catch (IOException e) {
+                Debug.major(DD, e.getMessage());
+            }
+            doc = null;
+        }
+    }
+
+
+    /************************************************************************
+     * Support code for Handles.
+     */
+
+    /**
+     * A reference to a shared document, or to a private copy of it. Closing 
+     * the Handle releases the reference, it does not close a shared document
+     * unless it was the last one.
+     */
+    public static class Handle implements Closeable {
+        private Entry entry;            // Null for a private copy.
+        private final boolean user;     // Has exclusive use of the entry?
+        private PDDocument doc;         // Null for hold().
+
+        private Handle(Entry entry, boolean user, PDDocument doc) {
+            this.entry = entry;
+            this.user = user;
+            this.doc = doc;
+        }
+
+        /**
+         * @return the document, for the exclusive use of this Handle.
+         * @throws IllegalStateException if the Handle is from hold().
+         */
+        public PDDocument getDocument() {
+            if (entry != null && !user) {
+                throw new IllegalStateException("Document is held, not acquired");
+            }
+
+            return doc;
+        }
+
+        /**
+         * Release this reference. Calling close() more than once is harmless.
+         */
+        @Override
+        public void close() {
+            if (entry != null) {
+                release(entry, user);
+                entry = null;
+            } else if (doc != null) {
+                try {
+                    doc.close();
+                } catch (IOException e) {
+                    Debug.major(DD, e.getMessage());
+                }
+            }
+            doc = null;
+        }
+    }
+
+    private static void release(Entry entry, boolean user) {
+        synchronized (cache) {
+            if (user) {
+                entry.inUse = false;
+            }
+            if (--entry.refs > 0) {
+                return;
+            }
+
+            cache.remove(entry.key, entry);
+        }
+
+        entry.close();
+    }
+
+
+
+    /************************************************************************
+     * Support code for the Initialization of the DocumentCache.
+     */
+
+    /**
+     * Private default constructor - static class, not instantiated.
+     */
+    private DocumentCache() {
+    }
+
+
+
+    /************************************************************************
+     * Support code for static public interface.
+     */
+
+    /**
+     * Get a Handle to the document at the given path, loading it into main
+     * memory only if no one else currently holds it.
+     *
+     * @param path of the PDF document.
+     * @return a Handle which the caller must close.
+     * @throws IOException if the file does not exist or can't be loaded.
+     */
+    public static Handle acquire(String path) throws IOException {
+        return acquire(path, MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * Get a Handle for the exclusive use of the document at the given path,
+     * loading it only if no one else currently holds it with the same memory
+     * usage setting. If it is in use by another Handle, a private copy is 
+     * loaded instead.
+     *
+     * @param path of the PDF document.
+     * @param setting memory usage for the document.
+     * @return a Handle which the caller must close.
+     * @throws IOException if the file does not exist or can't be loaded.
+     */
+    public static Handle acquire(String path, MemoryUsageSetting setting)
+            throws IOException {
+        return open(path, setting, true);
+    }
+
+    /**
+     * Get a Handle that keeps the document at the given path loaded, so that
+     * the next acquire() with the same memory usage setting does not parse it
+     * again. The document can't be used through the Handle.
+     *
+     * @param path of the PDF document.
+     * @param setting memory usage for the document.
+     * @return a Handle which the caller must close.
+     * @throws IOException if the file does not exist or can't be loaded.
+     */
+    public static Handle hold(String path, MemoryUsageSetting setting)
+            throws IOException {
+        return open(path, setting, false);
+    }
+
+    private static Handle open(String path, MemoryUsageSetting setting,
+            boolean use) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IOException("Not a file: " + path);
+        }
+
+        final Key key = new Key(file, setting);
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.computeIfAbsent(key, k -> new Entry(k, file, setting));
+            if (use && entry.inUse) {
+                entry = null;
+            } else {
+                ++entry.refs;
+                entry.inUse |= use;
+            }
+        }
+
+        if (entry == null) {
+            Debug.trace(DD, "DocumentCache private copy %s", key);
+
+            return new Handle(null, true, PDDocument.load(file, setting));
+        }
+
+        try {
+            return new Handle(entry, use, entry.load());
+        } catch (IOException e) {
+            release(entry, use);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of documents currently held open.
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+}
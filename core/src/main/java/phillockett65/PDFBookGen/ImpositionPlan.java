@@ -0,0 +1,448 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ImpositionPlan is the immutable class that captures where every source page
+ * goes in the generated document: for each side of each sheet of paper, the
+ * source page in the left and right slots (or blank) and, once placed for a
+ * paper size and the page sizes of a source, the transform that puts each
+ * page in its slot. Rendering just follows the plan, so the same plan is used
+ * by PDFBook, the previews and a dry run, which dumps the plan as JSON.
+ *
+ * Plans are held in compact primitive arrays and are cached, keyed by their
+ * settings (and page sizes once placed), so they are only computed once for
+ * repeated jobs.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+public final class ImpositionPlan {
+
+    // Sides of a sheet.
+    public static final int FRONT = 0;
+    public static final int BACK = 1;
+
+    // Slots of a side.
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+
+    private static final int CACHE_SIZE = 16;
+
+    private static final Map<Key, ImpositionPlan> cache =
+        new LinkedHashMap<Key, ImpositionPlan>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ImpositionPlan> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    private final int sheetsPerSig;     // Sheets of paper in a signature.
+    private final int firstPage;        // First source page, from 0.
+    private final int lastPage;         // Source page after the last one.
+    private final boolean rotate;       // Rotate the back of each sheet?
+
+    private final int sigCount;
+    private final int[] firstSheets;    // First sheet of each signature.
+    private final int[] pages;          // Source page of each slot, -1 = blank.
+
+    private final PDRectangle paper;    // Paper size, if placed.
+    private final float[] matrices;     // 6 per slot, if placed.
+
+
+    /************************************************************************
+     * Support code for cache keys.
+     */
+
+    /**
+     * Identifies a plan by its settings and, once placed, by the paper size
+     * and the sizes of the source pages it places.
+     */
+    private static class Key {
+        private final int sheetsPerSig;
+        private final int firstPage;
+        private final int lastPage;
+        private final boolean rotate;
+        private final float[] sizes;
+
+        private Key(int sheets, int first, int last, boolean rotate, float[] sizes) {
+            this.sheetsPerSig = sheets;
+            this.firstPage = first;
+            this.lastPage = last;
+            this.rotate = rotate;
+            this.sizes = sizes;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key)other;
+
+            return sheetsPerSig == key.sheetsPerSig &&
+                firstPage == key.firstPage && lastPage == key.lastPage &&
+                rotate == key.rotate && Arrays.equals(sizes, key.sizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((sheetsPerSig * 31 + firstPage) * 31 + lastPage) * 31 +
+                (rotate ? 1 : 0) + 17 * Arrays.hashCode(sizes);
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the Initialization of the ImpositionPlan.
+     */
+
+    /**
+     * Lay out the pages in signature order, as folded sheets are nested:
+     * the front of the outer sheet of each signature holds its last and
+     * first pages, the back its second and second to last, and so on
+     * inwards. Sheets beyond the last page of a signature are left out.
+     */
+    private ImpositionPlan(int sheets, int first, int last, boolean rotate) {
+        sheetsPerSig = sheets;
+        firstPage = first;
+        lastPage = Math.max(first, last);
+        this.rotate = rotate;
+        paper = null;
+        matrices = null;
+
+        final int sigPageCount = 4 * sheets;
+        final int count = lastPage - firstPage;
+        sigCount = (count + sigPageCount - 1) / sigPageCount;
+
+        int sheetCount = 0;
+        if (count > 0) {
+            sheetCount = new Signature(sheets, firstPage, lastPage - 1).sheetCount;
+        }
+        firstSheets = new int[sigCount + 1];
+        pages = new int[sheetCount * 4];
+
+        int sheet = 0;
+        for (int sig = 0; sig < sigCount; ++sig) {
+            firstSheets[sig] = sheet;
+            final int fpn = getSignatureFirstPage(sig);
+            final int n = getSignatureLastPage(sig) - fpn;
+
+            int lo = 0;
+            int hi = sigPageCount - 1;
+            for (int i = 0; i < sheets && lo < n; ++i) {
+                setPage(sheet, FRONT, LEFT, hi < n ? fpn + hi : -1);
+                setPage(sheet, FRONT, RIGHT, fpn + lo);
+                ++lo;
+                --hi;
+                setPage(sheet, BACK, LEFT, lo < n ? fpn + lo : -1);
+                setPage(sheet, BACK, RIGHT, hi < n ? fpn + hi : -1);
+                ++lo;
+                --hi;
+                ++sheet;
+            }
+        }
+        firstSheets[sigCount] = sheet;
+    }
+
+    /**
+     * Copy a layout and place every page of it on the given paper.
+     */
+    private ImpositionPlan(ImpositionPlan layout, PDRectangle size, PageIndex index) {
+        sheetsPerSig = layout.sheetsPerSig;
+        firstPage = layout.firstPage;
+        lastPage = layout.lastPage;
+        rotate = layout.rotate;
+        sigCount = layout.sigCount;
+        firstSheets = layout.firstSheets;
+        pages = layout.pages;
+        paper = size;
+        matrices = new float[pages.length * 6];
+
+        final double[] flat = new double[6];
+        for (int sheet = 0; sheet < getSheetCount(); ++sheet) {
+            for (int side = FRONT; side <= BACK; ++side) {
+                final int lpn = getPage(sheet, side, LEFT);
+                final int rpn = getPage(sheet, side, RIGHT);
+                if (lpn < 0 && rpn < 0) {
+                    continue;
+                }
+
+                // A missing page takes the size of the other page.
+                final int lFrame = lpn >= 0 ? lpn : rpn;
+                final int rFrame = rpn >= 0 ? rpn : lpn;
+                AffineTransform[] afs = SheetComposer.getSideTransforms(paper,
+                    index.getWidth(lFrame), index.getHeight(lFrame),
+                    index.getWidth(rFrame), index.getHeight(rFrame),
+                    isFlipped(side));
+
+                for (int slot = LEFT; slot <= RIGHT; ++slot) {
+                    afs[slot].getMatrix(flat);
+                    final int offset = getSlot(sheet, side, slot) * 6;
+                    for (int i = 0; i < 6; ++i) {
+                        matrices[offset + i] = (float)flat[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the plan for the given settings, without placement.
+     *
+     * @param sheets number of sheets of paper in each signature.
+     * @param first source page to include first (pages start from 0).
+     * @param last source page after the last one to include.
+     * @param rotate flag to indicate if the back of each sheet is rotated.
+     * @return the plan.
+     */
+    public static ImpositionPlan of(int sheets, int first, int last, boolean rotate) {
+        final Key key = new Key(sheets, first, last, rotate, null);
+        synchronized (cache) {
+            return cache.computeIfAbsent(key, k -> new ImpositionPlan(sheets, first, last, rotate));
+        }
+    }
+
+    /**
+     * Get this plan placed on the given paper, with the transforms of each
+     * source page calculated from the size of its crop box.
+     *
+     * @param size of portrait paper.
+     * @param index of the source document, which must hold every page of
+     * the plan.
+     * @return the placed plan.
+     */
+    public ImpositionPlan place(PDRectangle size, PageIndex index) {
+        final int count = lastPage - firstPage;
+        final float[] sizes = new float[2 * count + 2];
+        sizes[0] = size.getWidth();
+        sizes[1] = size.getHeight();
+        for (int i = 0; i < count; ++i) {
+            sizes[2 * i + 2] = index.getWidth(firstPage + i);
+            sizes[2 * i + 3] = index.getHeight(firstPage + i);
+        }
+
+        final Key key = new Key(sheetsPerSig, firstPage, lastPage, rotate, sizes);
+        synchronized (cache) {
+            return cache.computeIfAbsent(key, k -> new ImpositionPlan(this, size, index));
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    private int getSlot(int sheet, int side, int slot) {
+        return (sheet * 2 + side) * 2 + slot;
+    }
+
+    private void setPage(int sheet, int side, int slot, int pn) {
+        pages[getSlot(sheet, side, slot)] = pn;
+    }
+
+    public int getSheetsPerSignature() { return sheetsPerSig; }
+    public int getFirstPage() { return firstPage; }
+    public int getLastPage() { return lastPage; }
+    public boolean isRotate() { return rotate; }
+
+    /**
+     * @return the number of signatures.
+     */
+    public int getSignatureCount() { return sigCount; }
+
+    /**
+     * @return the number of sheets of paper in the generated document.
+     */
+    public int getSheetCount() { return firstSheets[sigCount]; }
+
+    /**
+     * @param sig index of the signature, or the signature count.
+     * @return the index of the first sheet of the signature, or the sheet
+     * count.
+     */
+    public int getFirstSheet(int sig) { return firstSheets[sig]; }
+
+    /**
+     * Count the sides of a signature that are generated. A side with both 
+     * pages blank is left out, which happens to the back of the last sheet
+     * of a short signature.
+     *
+     * @param sig index of the signature.
+     * @return the number of sides generated for the signature.
+     */
+    public int getSideCount(int sig) {
+        int count = 0;
+        for (int sheet = firstSheets[sig]; sheet < firstSheets[sig + 1]; ++sheet) {
+            for (int side = FRONT; side <= BACK; ++side) {
+                if (getPage(sheet, side, LEFT) >= 0 || getPage(sheet, side, RIGHT) >= 0) {
+                    ++count;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @param sig index of the signature.
+     * @return the first source page of the signature (pages start from 0).
+     */
+    public int getSignatureFirstPage(int sig) {
+        return firstPage + sig * 4 * sheetsPerSig;
+    }
+
+    /**
+     * @param sig index of the signature.
+     * @return the source page after the last one of the signature.
+     */
+    public int getSignatureLastPage(int sig) {
+        return Math.min(getSignatureFirstPage(sig) + 4 * sheetsPerSig, lastPage);
+    }
+
+    /**
+     * @param sheet index of the sheet.
+     * @param side FRONT or BACK.
+     * @param slot LEFT or RIGHT.
+     * @return the source page (pages start from 0), or -1 if blank.
+     */
+    public int getPage(int sheet, int side, int slot) {
+        return pages[getSlot(sheet, side, slot)];
+    }
+
+    /**
+     * @param side FRONT or BACK.
+     * @return true if the side is rotated clockwise, false otherwise.
+     */
+    public boolean isFlipped(int side) { return side == BACK && rotate; }
+
+    /**
+     * @return true if the plan has been placed on paper.
+     */
+    public boolean isPlaced() { return matrices != null; }
+
+    /**
+     * @return the paper size, or null if the plan has not been placed.
+     */
+    public PDRectangle getPaper() { return paper; }
+
+    /**
+     * @param sheet index of the sheet.
+     * @param side FRONT or BACK.
+     * @param slot LEFT or RIGHT.
+     * @return a new transform from source page space to sheet space.
+     * @throws IllegalStateException if the plan has not been placed.
+     */
+    public AffineTransform getTransform(int sheet, int side, int slot) {
+        if (matrices == null) {
+            throw new IllegalStateException("ImpositionPlan not placed");
+        }
+
+        final int offset = getSlot(sheet, side, slot) * 6;
+
+        return new AffineTransform(Arrays.copyOfRange(matrices, offset, offset + 6));
+    }
+
+
+
+    /************************************************************************
+     * Support code for JSON.
+     */
+
+    private void appendSlot(StringBuilder json, int sheet, int side, int slot) {
+        final int pn = getPage(sheet, side, slot);
+        if (pn < 0) {
+            json.append("null");
+
+            return;
+        }
+
+        json.append("{\"page\": ").append(pn + 1);
+        if (matrices != null) {
+            final int offset = getSlot(sheet, side, slot) * 6;
+            json.append(", \"matrix\": [");
+            for (int i = 0; i < 6; ++i) {
+                json.append(i == 0 ? "" : ", ").append(matrices[offset + i]);
+            }
+            json.append(']');
+        }
+        json.append('}');
+    }
+
+    private void appendSide(StringBuilder json, int sheet, int side) {
+        json.append("{\"flip\": ").append(isFlipped(side));
+        json.append(", \"left\": ");
+        appendSlot(json, sheet, side, LEFT);
+        json.append(", \"right\": ");
+        appendSlot(json, sheet, side, RIGHT);
+        json.append('}');
+    }
+
+    /**
+     * Describe the plan as JSON. Page numbers start from 1, as the user sees
+     * them, a blank slot is null and a matrix is [a, b, c, d, e, f] as in a
+     * PDF "cm" operator.
+     *
+     * @return the plan as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"sheetsPerSignature\": ").append(sheetsPerSig).append(",\n");
+        json.append("  \"firstPage\": ").append(firstPage + 1).append(",\n");
+        json.append("  \"lastPage\": ").append(lastPage).append(",\n");
+        json.append("  \"rotate\": ").append(rotate).append(",\n");
+        if (paper != null) {
+            json.append("  \"paper\": [").append(paper.getWidth()).append(", ")
+                .append(paper.getHeight()).append("],\n");
+        }
+        json.append("  \"sheets\": ").append(getSheetCount()).append(",\n");
+        json.append("  \"signatures\": [");
+
+        for (int sig = 0; sig < sigCount; ++sig) {
+            json.append(sig == 0 ? "\n" : ",\n");
+            json.append("    {\"firstPage\": ").append(getSignatureFirstPage(sig) + 1);
+            json.append(", \"lastPage\": ").append(getSignatureLastPage(sig));
+            json.append(", \"sheets\": [");
+            for (int sheet = getFirstSheet(sig); sheet < getFirstSheet(sig + 1); ++sheet) {
+                json.append(sheet == getFirstSheet(sig) ? "\n" : ",\n");
+                json.append("      {\"front\": ");
+                appendSide(json, sheet, FRONT);
+                json.append(",\n       \"back\": ");
+                appendSide(json, sheet, BACK);
+                json.append('}');
+            }
+            json.append("\n    ]}");
+        }
+        json.append(sigCount == 0 ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        return json.toString();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BookStats is the singleton class that aggregates the JobStats of every
+ * booklet generated in this JVM into counters and histograms, and registers
+ * itself with the platform MBean server on first use so that it can be
+ * watched with standard JMX tools.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import phillockett65.Debug.Debug;
+
+public class BookStats implements BookStatsMXBean {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    public static final String NAME = "phillockett65.PDFBookGen:type=BookStats";
+
+    private static final double MILLIS = 1e6;
+
+    private static BookStats stats = null;
+
+    private final LongAdder jobs = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder sheets = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final AtomicLong peakScratch = new AtomicLong();
+
+    private final Histogram jobTime = new Histogram();
+    private final Histogram[] phaseTimes = new Histogram[JobStats.PHASES];
+    private final Histogram outputSize = new Histogram();
+
+
+    /************************************************************************
+     * Support code for the Initialization of the BookStats.
+     */
+
+    /**
+     * Private default constructor - singleton, use getInstance().
+     */
+    private BookStats() {
+        for (int i = 0; i < JobStats.PHASES; ++i) {
+            phaseTimes[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Get the BookStats, creating and registering it if necessary. Failure
+     * to register is logged, the statistics are still collected.
+     *
+     * @return the singleton instance.
+     */
+    public static synchronized BookStats getInstance() {
+        if (stats == null) {
+            stats = new BookStats();
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(stats, new ObjectName(NAME));
+            } catch (JMException e) {
+                Debug.major(DD, "BookStats not registered: %s", e.getMessage());
+            }
+        }
+
+        return stats;
+    }
+
+
+
+    /************************************************************************
+     * Support code for collecting measurements.
+     */
+
+    /**
+     * Count a job that has started.
+     */
+    public void jobStarted() {
+        active.incrementAndGet();
+    }
+
+    /**
+     * Add the measurements of a job that has ended.
+     *
+     * @param job measurements of the job.
+     * @param saved true if the booklet was written.
+     * @param wasCancelled true if the job was cancelled.
+     */
+    public void jobEnded(JobStats job, boolean saved, boolean wasCancelled) {
+        active.decrementAndGet();
+        jobs.increment();
+        if (wasCancelled) {
+            cancelled.increment();
+        } else if (!saved) {
+            failed.increment();
+        }
+
+        pages.add(job.getPages());
+        sheets.add(job.getSheets());
+        bytesWritten.add(job.getBytesWritten());
+        peakScratch.accumulateAndGet(job.getPeakScratch(), Math::max);
+
+        // Only complete jobs are representative of the time taken.
+        if (saved) {
+            jobTime.record(job.getElapsed());
+            for (int i = 0; i < JobStats.PHASES; ++i) {
+                phaseTimes[i].record(job.getTime(i));
+            }
+            outputSize.record(job.getBytesWritten());
+        }
+
+        Debug.trace(DD, "Job stats: %s", job);
+    }
+
+
+
+    /************************************************************************
+     * Support code for BookStatsMXBean.
+     */
+
+    @Override
+    public long getJobs() { return jobs.sum(); }
+
+    @Override
+    public long getFailedJobs() { return failed.sum(); }
+
+    @Override
+    public long getCancelledJobs() { return cancelled.sum(); }
+
+    @Override
+    public int getActiveJobs() { return active.get(); }
+
+    @Override
+    public long getPages() { return pages.sum(); }
+
+    @Override
+    public long getSheets() { return sheets.sum(); }
+
+    @Override
+    public long getBytesWritten() { return bytesWritten.sum(); }
+
+    @Override
+    public long getPeakScratchBytes() { return peakScratch.get(); }
+
+    @Override
+    public Summary getJobTime() { return Summary.of(jobTime, MILLIS); }
+
+    @Override
+    public Summary getLoadTime() { return getPhaseTime(JobStats.LOAD); }
+
+    @Override
+    public Summary getImportTime() { return getPhaseTime(JobStats.IMPORT); }
+
+    @Override
+    public Summary getComposeTime() { return getPhaseTime(JobStats.COMPOSE); }
+
+    @Override
+    public Summary getWriteTime() { return getPhaseTime(JobStats.WRITE); }
+
+    @Override
+    public Summary getOutputSize() { return Summary.of(outputSize, 1); }
+
+    private Summary getPhaseTime(int phase) {
+        return Summary.of(phaseTimes[phase], MILLIS);
+    }
+
+    @Override
+    public void reset() {
+        jobs.reset();
+        failed.reset();
+        cancelled.reset();
+        pages.reset();
+        sheets.reset();
+        bytesWritten.reset();
+        peakScratch.set(0);
+        jobTime.reset();
+        for (Histogram histogram : phaseTimes) {
+            histogram.reset();
+        }
+        outputSize.reset();
+    }
+
+}
@@ -0,0 +1,53 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BookStatsMXBean is the management interface of BookStats, which can be
+ * viewed with standard JMX tools such as jconsole or VisualVM under the name
+ * "phillockett65.PDFBookGen:type=BookStats". Times are in milliseconds and
+ * sizes in bytes.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+public interface BookStatsMXBean {
+
+    public long getJobs();
+    public long getFailedJobs();
+    public long getCancelledJobs();
+    public int getActiveJobs();
+
+    public long getPages();
+    public long getSheets();
+    public long getBytesWritten();
+    public long getPeakScratchBytes();
+
+    public Summary getJobTime();
+    public Summary getLoadTime();
+    public Summary getImportTime();
+    public Summary getComposeTime();
+    public Summary getWriteTime();
+    public Summary getOutputSize();
+
+    /**
+     * Discard all measurements, active jobs are still counted.
+     */
+    public void reset();
+
+}
@@ -0,0 +1,161 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Histogram is the class that accumulates a distribution of non-negative
+ * values, such as durations in nanoseconds or sizes in bytes. Values are
+ * counted in buckets of 8 per power of 2, so quantiles are accurate to within
+ * 12.5% whatever the range of the values. Recording is lock free, so a single
+ * Histogram can be shared by concurrent jobs.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /************************************************************************
+     * Support code for buckets.
+     */
+
+    /**
+     * @return the index of the bucket that counts the given value.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int)value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BITS;
+        final int sub = (int)(value >>> shift) & (SUB_COUNT - 1);
+
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return the highest value counted by the given bucket.
+     */
+    private static long highestOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_COUNT - 1;
+        final long sub = index % SUB_COUNT;
+
+        return ((SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    /**
+     * Count a value, negative values are counted as 0.
+     *
+     * @param value to count.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return the number of values counted.
+     */
+    public long getCount() { return count.get(); }
+
+    /**
+     * @return the total of the values counted.
+     */
+    public long getSum() { return sum.get(); }
+
+    /**
+     * @return the largest value counted, 0 if there are none.
+     */
+    public long getMax() { return max.get(); }
+
+    /**
+     * @return the mean of the values counted, 0 if there are none.
+     */
+    public double getMean() {
+        final long n = count.get();
+
+        return n == 0 ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * Estimate the value below which the given fraction of the values fall.
+     *
+     * @param quantile fraction of the values, from 0 to 1.
+     * @return the upper bound of the bucket holding the quantile, 0 if no 
+     * values have been counted.
+     */
+    public long getQuantile(double quantile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long)Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Discard all counted values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JobEvent is the Java Flight Recorder event that spans a complete booklet
+ * generation. The other PDFBookGen events recorded on the same threads
+ * during the job break it down into loading, signatures, sheets and saving.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("phillockett65.PDFBookGen.Job")
+@Label("Booklet Job")
+@Description("Generation of a booklet with genBooklet()")
+@Category("PDFBookGen")
+@StackTrace(false)
+public class JobEvent extends jdk.jfr.Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("Output")
+    public String output;
+
+    @Label("Pages")
+    public int pages;
+
+    @Label("Sheets")
+    public int sheets;
+
+    @Label("Sheets per Signature")
+    public int sheetCount;
+
+    @Label("Threads")
+    public int threads;
+
+    @Label("Memory Mode")
+    public String memoryMode;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+    @Label("Saved")
+    public boolean saved;
+
+    @Label("Cancelled")
+    public boolean cancelled;
+
+}
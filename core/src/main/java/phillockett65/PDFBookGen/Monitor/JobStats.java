@@ -0,0 +1,143 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JobStats is the class that collects the measurements of a single booklet
+ * generation: the time spent in each phase, the pages and sheets processed,
+ * the bytes written and the peak scratch file usage. Phase times are summed
+ * over all the threads working on the job, so with several threads they can
+ * add up to more than the elapsed time of the job.
+ *
+ * Phases:
+ *  LOAD    - parsing the source and indexing its pages.
+ *  IMPORT  - importing source pages as form XObjects.
+ *  COMPOSE - placing the forms on the sheets (transforms, content streams).
+ *  WRITE   - writing the sheets and finishing the output document.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class JobStats {
+
+    public static final int LOAD = 0;
+    public static final int IMPORT = 1;
+    public static final int COMPOSE = 2;
+    public static final int WRITE = 3;
+    public static final int PHASES = 4;
+
+    private static final String[] NAMES = { "Load", "Import", "Compose", "Write" };
+
+    private final LongAdder[] phases = new LongAdder[PHASES];
+    private final long start = System.nanoTime();
+    private long elapsed = 0;
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder sheets = new LongAdder();
+    private long bytesWritten = 0;
+    private final AtomicLong peakScratch = new AtomicLong();
+
+
+    /************************************************************************
+     * Support code for the Initialization of the JobStats.
+     */
+
+    /**
+     * Default constructor, starts the job clock.
+     */
+    public JobStats() {
+        for (int i = 0; i < PHASES; ++i) {
+            phases[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param phase LOAD, IMPORT, COMPOSE or WRITE.
+     * @return the display name of the phase.
+     */
+    public static String getName(int phase) { return NAMES[phase]; }
+
+
+
+    /************************************************************************
+     * Support code for collecting measurements.
+     */
+
+    /**
+     * Add the time since start to a phase.
+     *
+     * @param phase LOAD, IMPORT, COMPOSE or WRITE.
+     * @param start System.nanoTime() at the start of the work.
+     * @return the time added in nanoseconds.
+     */
+    public long addTime(int phase, long start) {
+        final long nanos = System.nanoTime() - start;
+        phases[phase].add(nanos);
+
+        return nanos;
+    }
+
+    public void addPages(int count) { pages.add(count); }
+    public void addSheet() { sheets.increment(); }
+    public void setBytesWritten(long bytes) { bytesWritten = bytes; }
+
+    /**
+     * Note the current scratch usage, keeping the highest seen.
+     *
+     * @param bytes currently used by scratch files.
+     */
+    public void sampleScratch(long bytes) {
+        peakScratch.accumulateAndGet(bytes, Math::max);
+    }
+
+    /**
+     * Stop the job clock.
+     */
+    public void stop() { elapsed = System.nanoTime() - start; }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    public long getTime(int phase) { return phases[phase].sum(); }
+    public long getElapsed() { return elapsed; }
+    public long getPages() { return pages.sum(); }
+    public long getSheets() { return sheets.sum(); }
+    public long getBytesWritten() { return bytesWritten; }
+    public long getPeakScratch() { return peakScratch.get(); }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%.1f ms", elapsed / 1e6));
+        for (int i = 0; i < PHASES; ++i) {
+            text.append(String.format(", %s %.1f ms", NAMES[i], getTime(i) / 1e6));
+        }
+        text.append(", ").append(getPages()).append(" pages");
+        text.append(", ").append(getSheets()).append(" sheets");
+        text.append(", ").append(bytesWritten).append(" bytes");
+        text.append(", scratch ").append(getPeakScratch()).append(" bytes");
+
+        return text.toString();
+    }
+
+}
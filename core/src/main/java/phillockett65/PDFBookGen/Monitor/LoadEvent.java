@@ -0,0 +1,54 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LoadEvent is the Java Flight Recorder event for parsing the source PDF and
+ * indexing its pages. With several threads there is one per worker thread.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("phillockett65.PDFBookGen.Load")
+@Label("Load Source")
+@Description("Parsing and indexing the source document")
+@Category("PDFBookGen")
+@StackTrace(false)
+public class LoadEvent extends jdk.jfr.Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("File Size")
+    @DataAmount
+    public long fileSize;
+
+    @Label("Pages")
+    public int pages;
+
+    @Label("Memory Mode")
+    public String memoryMode;
+
+}
@@ -0,0 +1,52 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SaveEvent is the Java Flight Recorder event for writing to the output PDF,
+ * either the sheets of a signature or, with a signature of -1, the document
+ * structure that finishes the file.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("phillockett65.PDFBookGen.Save")
+@Label("Save")
+@Description("Writing sheets or the document structure to the output")
+@Category("PDFBookGen")
+@StackTrace(false)
+public class SaveEvent extends jdk.jfr.Event {
+
+    @Label("Signature")
+    public int signature;
+
+    @Label("Sheet Sides")
+    public int sides;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+
+}
@@ -0,0 +1,65 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SheetEvent is the Java Flight Recorder event for composing both sides of a
+ * single sheet, including importing its source pages. Page numbers start
+ * from 1, 0 marks a blank page.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("phillockett65.PDFBookGen.Sheet")
+@Label("Compose Sheet")
+@Description("Importing and placing the four pages of a sheet")
+@Category("PDFBookGen")
+@StackTrace(false)
+public class SheetEvent extends jdk.jfr.Event {
+
+    @Label("Signature")
+    public int signature;
+
+    @Label("Sheet")
+    public int sheet;
+
+    @Label("Front Left Page")
+    public int frontLeft;
+
+    @Label("Front Right Page")
+    public int frontRight;
+
+    @Label("Back Left Page")
+    public int backLeft;
+
+    @Label("Back Right Page")
+    public int backRight;
+
+    @Label("Sheet Width")
+    public float width;
+
+    @Label("Sheet Height")
+    public float height;
+
+}
@@ -0,0 +1,85 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Summary is the class that holds a snapshot of a Histogram, scaled to the
+ * units it is reported in. It is exposed by the BookStatsMXBean, where JMX
+ * clients see it as composite data.
+ */
+package phillockett65.PDFBookGen.Monitor;
+
+import java.beans.ConstructorProperties;
+
+public class Summary {
+
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p95;
+    private final double p99;
+    private final double max;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the Summary.
+     */
+
+    @ConstructorProperties({ "count", "mean", "p50", "p95", "p99", "max" })
+    public Summary(long count, double mean, double p50, double p95, double p99,
+            double max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * Take a snapshot of a histogram.
+     *
+     * @param histogram to summarize.
+     * @param unit size of the reported unit in recorded units, for example
+     * 1000000 to report nanoseconds as milliseconds.
+     * @return the summary.
+     */
+    public static Summary of(Histogram histogram, double unit) {
+        return new Summary(histogram.getCount(),
+            histogram.getMean() / unit,
+            histogram.getQuantile(0.50) / unit,
+            histogram.getQuantile(0.95) / unit,
+            histogram.getQuantile(0.99) / unit,
+            histogram.getMax() / unit);
+    }
+
+    public long getCount() { return count; }
+    public double getMean() { return mean; }
+    public double getP50() { return p50; }
+    public double getP95() { return p95; }
+    public double getP99() { return p99; }
+    public double getMax() { return max; }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2f p50=%.2f p95=%.2f p99=%.2f max=%.2f",
+            count, mean, p50, p95, p99, max);
+    }
+
+}
@@ -0,0 +1,273 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * OutputCache is a class that keeps copies of generated booklets on disc, so
+ * that repeating an identical job (for example undoing and redoing Generate)
+ * is a file copy instead of imposing the whole document again.
+ *
+ * Entries are content addressed: the key is a hash of the content of the
+ * source document together with every setting that affects the output, so
+ * a renamed source still hits and an edited source misses. The total size of
+ * the cache is bounded, with the least recently used entries evicted first.
+ * The modification time of an entry records its last use, so the order 
+ * survives restarts and the directory can be shared by several processes.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import phillockett65.Debug.Debug;
+
+public class OutputCache {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    // Changed whenever the generated output changes for the same settings.
+    private static final String FORMAT = "1";
+
+    private static final String SUFFIX = ".pdf";
+
+    private final File dir;
+    private final long maxBytes;
+
+    // Content hashes of sources, by path, size and modification time.
+    private final Map<String, String> hashes = new HashMap<>();
+
+    private int hits = 0;
+    private int misses = 0;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the OutputCache.
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param directory to keep the cached booklets in, created if needed.
+     * @param limit maximum total size of the cached booklets in bytes.
+     */
+    public OutputCache(String directory, long limit) {
+        dir = new File(directory);
+        maxBytes = limit;
+    }
+
+    /**
+     * @return the number of jobs served from the cache.
+     */
+    public synchronized int getHits() { return hits; }
+
+    /**
+     * @return the number of jobs not found in the cache.
+     */
+    public synchronized int getMisses() { return misses; }
+
+
+
+    /************************************************************************
+     * Support code for keys.
+     */
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Get the content hash of a source document, hashing the file only if
+     * it has changed since it was last hashed.
+     */
+    private String hashOf(File source) throws IOException {
+        final String id = source.getCanonicalPath() + "|" + source.length() + "|" + source.lastModified();
+        synchronized (this) {
+            final String hash = hashes.get(id);
+            if (hash != null) {
+                return hash;
+            }
+        }
+
+        MessageDigest md = createDigest();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+        }
+        final String hash = toHex(md.digest());
+
+        synchronized (this) {
+            hashes.put(id, hash);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Get the cache key of a job.
+     *
+     * @param source file path of the source PDF.
+     * @param settings every setting that affects the generated document.
+     * @return the key.
+     * @throws IOException if the source cannot be read.
+     */
+    public String keyOf(String source, String settings) throws IOException {
+        MessageDigest md = createDigest();
+        md.update(FORMAT.getBytes(StandardCharsets.UTF_8));
+        md.update(hashOf(new File(source)).getBytes(StandardCharsets.UTF_8));
+        md.update(settings.getBytes(StandardCharsets.UTF_8));
+
+        return toHex(md.digest());
+    }
+
+    private File entryOf(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    /**
+     * Copy a cached booklet to the output, if there is one. The output is
+     * replaced only once the copy is complete.
+     *
+     * @param key of the job.
+     * @param output file path for the generated PDF.
+     * @return true if the booklet was found and copied, false otherwise.
+     */
+    public boolean fetch(String key, String output) {
+        final File entry = entryOf(key);
+        if (!entry.isFile()) {
+            synchronized (this) {
+                ++misses;
+            }
+
+            return false;
+        }
+
+        final File part = new File(output + ".part");
+        try {
+            Files.copy(entry.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(part.toPath(), new File(output).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            part.delete();
+            synchronized (this) {
+                ++misses;
+            }
+
+            return false;
+        }
+
+        synchronized (this) {
+            ++hits;
+        }
+        Debug.trace(DD, "OutputCache hit %s", key);
+
+        return true;
+    }
+
+    /**
+     * Add a generated booklet to the cache, then evict the least recently 
+     * used entries if the cache is over its size limit. Failure to cache is
+     * logged, but is not an error.
+     *
+     * @param key of the job.
+     * @param output file path of the generated PDF.
+     */
+    public void store(String key, String output) {
+        final File entry = entryOf(key);
+        final File part = new File(dir, key + ".part");
+        try {
+            Files.createDirectories(dir.toPath());
+            Files.copy(new File(output).toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(part.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            part.delete();
+            Debug.warning(DD, "OutputCache store failed: %s", e.getMessage());
+
+            return;
+        }
+
+        Debug.trace(DD, "OutputCache stored %s", key);
+        evict();
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits its limit.
+     */
+    public synchronized void evict() {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (entries == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+
+            final long size = entry.length();
+            if (entry.delete()) {
+                total -= size;
+                Debug.trace(DD, "OutputCache evicted %s", entry.getName());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,1327 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+ /*
+ * As a standalone file, PDFBookGen is a simple application to generate a booklet
+ * from of a source PDF document. It requires 2 parameters, the source PDF and
+ * the name of the new PDF. However, it can be used as a java class, in which
+ * case PDFBookGen.main() should be superseded.
+ *
+ * Example usage:
+ *  java -jar path-to-PDFBookGen.jar path-to-source.pdf path-to-new.pdf
+ *
+ * Dependencies:
+ *  PDFbox (pdfbox-app-2.0.19.jar)
+ *  https://pdfbox.apache.org/download.cgi
+ *
+ * This code supports multi-sheet sections. For more information on bookbinding
+ * terms and techniques refer to:
+ *  https://en.wikipedia.org/wiki/Bookbinding#Terms_and_techniques
+ *  https://www.formaxprinting.com/blog/2016/11/
+ *      booklet-layout-how-to-arrange-the-pages-of-a-saddle-stitched-booklet/
+ *  https://www.studentbookbinding.co.uk/blog/
+ *      how-to-set-up-pagination-section-sewn-bindings
+ *
+ * The document is processed in groups of 4 pages for each sheet of paper, where
+ * each page is captured as a BufferedImage. The 4th page is rotated anti-
+ * clockwise and scaled to fit on the bottom half of one side of the sheet. The
+ * 1st page is rotated anti-clockwise and scaled to fit on the top half of the
+ * same side of the sheet. On the reverse side, the 2nd page is rotated
+ * clockwise and scaled to fit on the top half and the 3rd page is rotated
+ * clockwise and scaled to fit on the bottom half. This process is repeated for
+ * all groups of 4 pages in the source document.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentProperties;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import phillockett65.Debug.Debug;
+import phillockett65.PDFBookGen.Monitor.BookStats;
+import phillockett65.PDFBookGen.Monitor.JobEvent;
+import phillockett65.PDFBookGen.Monitor.JobStats;
+import phillockett65.PDFBookGen.Monitor.LoadEvent;
+import phillockett65.PDFBookGen.Monitor.SaveEvent;
+import phillockett65.PDFBookGen.Monitor.SheetEvent;
+import phillockett65.PDFBookGen.Monitor.SignatureEvent;
+
+/**
+ *
+ * @author Phil
+ */
+public class PDFBook {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    // Memory modes, where document data is buffered.
+    public static final String HEAP = "Heap";
+    public static final String MIXED = "Mixed";
+    public static final String TEMP_FILE = "Temp File";
+
+    // Names of the supported paper sizes.
+    public static final String[] PAPER_SIZES = {
+        "A0", "A1", "A2", "A3", "A4", "A5", "A6", "Letter", "Legal", "Tabloid"
+    };
+
+    private static final int MAX_WORKERS = 8;   // Most copies of the source.
+    private static final int COPY_FACTOR = 4;   // Heap per copy, times file size.
+
+    private PDRectangle pageSize = PDRectangle.LETTER;
+    private int sheetCount = 1;
+    private int firstPage = 0;
+    private int lastPage = 0;
+    private boolean rotate = true;      // Required?
+    private boolean layers = false;     // Add each page as an OCG?
+
+    private String memoryMode = HEAP;   // Where documents are buffered.
+    private long maxHeap = 256;         // Heap limit (MB) for MIXED mode.
+    private String scratchDir = "";     // Temp files directory, "" = default.
+    private int threads = 1;            // Signatures imposed concurrently.
+    private boolean compress = false;   // Use object and xref streams?
+    private OutputCache cache = null;   // Previously generated booklets.
+    private SignatureCache signatures = null;   // Signatures of the last run.
+    private PageHashes pageHashes = null;       // Content hashes of sources.
+
+    private final String sourcePDF;     // The source PDF filepath.
+    private final String outputPDF;     // The generated PDF filepath.
+    private int maxPage = 0;
+
+    private PDDocument inputDoc;        // The source PDF document.
+    private PDDocument outputDoc;       // The generated PDF document.
+    private PageIndex previous;         // Sheets of the last run, if any.
+    private String sourceId;            // Identifies the source version.
+    private String[] hashes;            // Content hash of each source page.
+    private ImpositionPlan plan;        // Where each source page goes.
+    private final List<PDDocument> workerDocs = new ArrayList<>();
+    private MemoryUsageSetting workerMUS;   // Share of the memory per worker.
+    private volatile ImpositionPlan workerPlan; // Plan placed by the workers.
+
+    private volatile boolean cancelled = false;
+    private ProgressListener listener = null;
+    private final AtomicInteger sheetsDone = new AtomicInteger();
+    private int sheetsTotal = 0;
+    private JobStats stats = new JobStats();
+
+
+    /**
+     * Listener notified as each sheet of the booklet is completed.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after a sheet has been added to the generated document.
+         *
+         * @param done number of sheets generated so far.
+         * @param total number of sheets that will be generated.
+         */
+        public void progress(int done, int total);
+    }
+
+
+    /**
+     * Find the number of pages in the source PDF document. The page count is
+     * probed directly from the file where possible. Otherwise the document is
+     * loaded through the DocumentCache, so if it is already held open (for 
+     * example by the Model) it is not parsed again.
+     *
+     * @param inPDF file path for source PDF.
+     */
+    static public int getPDFPageCount(String inPDF) {
+        Debug.trace(DD, "getPDFPageCount(%s)", inPDF);
+
+        int maxPage = 0;
+
+        File file = new File(inPDF);
+        if (file.isFile() == false) {
+            return maxPage;
+        }
+
+        maxPage = PageCountProbe.probe(inPDF);
+        if (maxPage >= 0) {
+            return maxPage;
+        }
+        maxPage = 0;
+
+        try (DocumentCache.Handle handle = DocumentCache.acquire(inPDF)) {
+            maxPage = handle.getDocument().getNumberOfPages();
+        } catch (IOException e) {
+            Debug.critical(DD, e.getMessage());
+        }
+
+        return maxPage;
+    }
+
+    /**
+     * Constructor. The source document is not loaded until genBooklet().
+     *
+     * @param inPDF file path for source PDF.
+     * @param outPDF file path for generated PDF.
+     */
+    public PDFBook(String inPDF, String outPDF) {
+        this(inPDF, outPDF, getPDFPageCount(inPDF));
+    }
+
+    /**
+     * Constructor for a source whose page count is already known, so the
+     * source is not read at all until genBooklet().
+     *
+     * @param inPDF file path for source PDF.
+     * @param outPDF file path for generated PDF.
+     * @param pages number of pages in the source PDF.
+     */
+    public PDFBook(String inPDF, String outPDF, int pages) {
+        Debug.trace(DD, "PDFBook(%s, %s, %d)", inPDF, outPDF, pages);
+        sourcePDF = inPDF;
+        outputPDF = outPDF;
+
+        maxPage = pages;
+        lastPage = maxPage;
+    }
+
+    /**
+     * Find the canonical name of a paper size.
+     * 
+     * @param size name of a paper size, in any case.
+     * @return the name as in PAPER_SIZES, or null if it is not supported.
+     */
+    public static String toPaperSize(String size) {
+        for (String name : PAPER_SIZES) {
+            if (name.equalsIgnoreCase(size)) {
+                return name;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the canonical name of a memory mode.
+     * 
+     * @param mode one of HEAP, MIXED, TEMP_FILE or "temp", in any case.
+     * @return HEAP, MIXED or TEMP_FILE, or null if it is not supported.
+     */
+    public static String toMemoryMode(String mode) {
+        for (String name : new String[] { HEAP, MIXED, TEMP_FILE }) {
+            if (name.equalsIgnoreCase(mode)) {
+                return name;
+            }
+        }
+
+        return "temp".equalsIgnoreCase(mode) ? TEMP_FILE : null;
+    }
+
+    private static PDRectangle getPS(String size) {
+        switch (size) {
+            case "A0":      return PDRectangle.A0;
+            case "A1":      return PDRectangle.A1;
+            case "A2":      return PDRectangle.A2;
+            case "A3":      return PDRectangle.A3;
+            case "A4":      return PDRectangle.A4;
+            case "A5":      return PDRectangle.A5;
+            case "A6":      return PDRectangle.A6;
+            case "Legal":   return PDRectangle.LEGAL;
+            case "Letter":  return PDRectangle.LETTER;
+            case "Tabloid": return PDRectangle.TABLOID;
+        }
+
+        return PDRectangle.LETTER;
+    }
+    /**
+     * Build the PDFBox memory settings for the given memory mode.
+     * 
+     * @param mode one of HEAP, MIXED or TEMP_FILE (case insensitive).
+     * @param max heap limit in MB used by MIXED mode.
+     * @param dir directory for temp files, blank for the system default.
+     * @return the corresponding MemoryUsageSetting.
+     */
+    public static MemoryUsageSetting getMUS(String mode, long max, String dir) {
+        MemoryUsageSetting setting;
+        if (MIXED.equalsIgnoreCase(mode)) {
+            setting = MemoryUsageSetting.setupMixed(max * 1024 * 1024);
+        } else if (TEMP_FILE.equalsIgnoreCase(mode) || "temp".equalsIgnoreCase(mode)) {
+            setting = MemoryUsageSetting.setupTempFileOnly();
+        } else {
+            return MemoryUsageSetting.setupMainMemoryOnly();
+        }
+
+        if (dir != null && !dir.isBlank()) {
+            setting.setTempDir(new File(dir));
+        }
+
+        return setting;
+    }
+
+    /**
+     * System entry point for stand alone, command line version.
+     *
+     * Usage: PDFBook [options] source.pdf output.pdf [paper-size]
+     * Options are as listed in BookOptions.USAGE.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> params = new ArrayList<>();
+        BookOptions options = new BookOptions();
+        try {
+            for (String arg : args) {
+                if (options.parse(arg)) {
+                    continue;
+                }
+                if (arg.startsWith("--")) {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+                params.add(arg);
+            }
+
+            if (params.size() > 2) {
+                options.set("paper", params.get(2));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+
+        if (params.size() < 2) {
+            System.err.println("Usage: PDFBook [options] source.pdf output.pdf [paper-size]");
+            System.err.print(BookOptions.USAGE);
+            System.exit(2);
+        }
+
+        if (!options.createBook(params.get(0), params.get(1)).genBooklet()) {
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Set the size of the page in the output document.
+     * 
+     * @param size of output page defined by getPS() compatible Strings.
+     */
+    public void setPageSize(String size) {
+        pageSize = getPS(size);
+    }
+
+    /**
+     * Set the size of the page in the output document.
+     * 
+     * @param size of standard portrait page defined by PDRectangle.
+     */
+    public void setPageSize(PDRectangle size) {
+        pageSize = size;
+    }
+
+    /**
+     * Get the size of the page in the output document.
+     * 
+     * @return the standard portrait page defined by PDRectangle.
+     */
+    public PDRectangle getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Set to number of sheets to be used in a section (4 pages to a sheet).
+     * 
+     * @param count of sheets in a section (1 to 6).
+     */
+    public void setSheetCount(int count) {
+        sheetCount = count;
+    }
+
+    /**
+     * Select the first page to be added to the booklet (0 to maxPage).
+     * 
+     * @param page number of first page starting from 0.
+     */
+    public void setFirstPage(int page) {
+        if (page < 0) {
+            firstPage = 0;
+
+            return;
+        }
+
+        if (page > maxPage)
+            page = maxPage;
+
+        if (page > lastPage)
+            lastPage = page;
+
+        firstPage = page;
+    }
+
+    /**
+     * Select the page after the last page to be added to the booklet (0 to 
+     * maxPage).
+     * 
+     * @param page number of last page not to be exceeded.
+     */
+    public void setLastPage(int page) {
+        if (page > maxPage) {
+            lastPage = maxPage;
+
+            return;
+        }
+
+        if (page < 0)
+            page = 0;
+
+        if (page < firstPage)
+            firstPage = page;
+
+        lastPage = page;
+    }
+
+    /**
+     * Get the current first page number (0 to maxPage).
+     * 
+     * @return the current first page number. 
+     */
+    public int getFirstPage() {
+        return firstPage;
+    }
+
+    /**
+     * Get the current last page number (0 to maxPage).
+     * 
+     * @return the current last page number. 
+     */
+    public int getLastPage() {
+        return lastPage;
+    }
+
+    /**
+     * Get the number of pages in the source PDF document.
+     * 
+     * @return number of pages in the PDF.
+     */
+    public int getMaxPage() {
+        return maxPage;
+    }
+
+    /**
+     * Get the file path of the source PDF document.
+     * 
+     * @return the file path for source PDF.
+     */
+    public String getSourceDocument() {
+        return sourcePDF;
+    }
+
+    /**
+     * Indicate whether the pages on the reverse side should be rotated in the 
+     * opposite direction to the front side of the sheet.
+     * 
+     * @param flip true if the reverse side should be rotated, false otherwise.
+     */
+    public void setRotate(boolean flip) {
+        rotate = flip;
+    }
+
+    /**
+     * Indicate whether each source page should be added to the output as an
+     * Optional Content Group (layer). Layers let a viewer toggle individual
+     * pages but add 2 OCGs per side to the document catalog, so the default, 
+     * suitable for printing, is to place pages as plain XObjects.
+     * 
+     * @param state true to create a layer per source page, false otherwise.
+     */
+    public void setUseLayers(boolean state) {
+        layers = state;
+    }
+
+    /**
+     * Set the number of threads used to impose signatures concurrently. Each 
+     * thread loads its own copy of the source document, so at most 
+     * MAX_WORKERS are used, and no more than there is free heap for. In
+     * MIXED mode the heap limit is shared between the threads.
+     * 
+     * @param count of threads, 1 (the default) imposes sequentially.
+     */
+    public void setThreads(int count) {
+        threads = Math.max(1, count);
+    }
+
+    /**
+     * Select whether the generated PDF packs its objects into compressed 
+     * object streams, with a cross reference stream (PDF 1.5). This makes 
+     * much smaller files, but they cannot be read by PDF 1.4 readers.
+     * 
+     * @param state true to compress, false (the default) for a classic 
+     * cross reference table.
+     */
+    public void setCompress(boolean state) {
+        compress = state;
+    }
+
+    /**
+     * Use a cache of previously generated booklets, so that an identical job
+     * is copied from the cache instead of being generated again.
+     * 
+     * @param outputCache to use, or null (the default) for none.
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        cache = outputCache;
+    }
+
+    /**
+     * Reuse the unchanged signatures of the previous run, and record the 
+     * signatures of this run for the next. The same SignatureCache should be
+     * passed to each PDFBook of a series of runs.
+     * 
+     * @param signatureCache to use, or null (the default) for none.
+     */
+    public void setSignatureCache(SignatureCache signatureCache) {
+        signatures = signatureCache;
+    }
+
+    /**
+     * Identify signatures by the content of their pages rather than by the 
+     * version of the source file, so that when a new revision of the source
+     * is generated only the signatures holding edited pages are imposed. 
+     * Only used with a SignatureCache.
+     * 
+     * @param index of page hashes to use, or null (the default) for none.
+     */
+    public void setPageHashes(PageHashes index) {
+        pageHashes = index;
+    }
+
+    /**
+     * @return a description of every setting that affects the content of 
+     * the generated document, but not of how it is generated.
+     */
+    public String getSettings() {
+        return "page=" + pageSize.getWidth() + "x" + pageSize.getHeight() +
+            " sheets=" + sheetCount + " first=" + firstPage + " last=" + lastPage +
+            " rotate=" + rotate + " layers=" + layers + " compress=" + compress;
+    }
+
+    /**
+     * @return the plan of which source page goes where, without placement.
+     */
+    public ImpositionPlan getLayout() {
+        return ImpositionPlan.of(sheetCount, firstPage, lastPage, rotate);
+    }
+
+    /**
+     * Plan the booklet without generating it, placing every page on the 
+     * paper. Only the page tree of the source is read, so this is much 
+     * quicker than genBooklet(), for a dry run or previews.
+     * 
+     * @return the placed plan of the booklet.
+     * @throws IOException if the source cannot be loaded.
+     */
+    public ImpositionPlan getPlan() throws IOException {
+        try (DocumentCache.Handle source = DocumentCache.acquire(sourcePDF, getMUS())) {
+            return getLayout().place(pageSize, new PageIndex(source.getDocument()));
+        }
+    }
+
+    /**
+     * Select where document data is buffered while generating. HEAP keeps 
+     * everything in memory, MIXED uses up to the max heap limit then spills 
+     * to temp files and TEMP_FILE uses only temp files, keeping heap use 
+     * bounded for very large documents.
+     * 
+     * @param mode one of HEAP, MIXED or TEMP_FILE.
+     */
+    public void setMemoryMode(String mode) {
+        memoryMode = mode;
+    }
+
+    /**
+     * Set the heap limit for MIXED memory mode.
+     * 
+     * @param mb maximum main memory to use in megabytes.
+     */
+    public void setMaxHeap(long mb) {
+        maxHeap = mb;
+    }
+
+    /**
+     * Set the directory used for temp files by MIXED and TEMP_FILE modes.
+     * 
+     * @param dir directory path, blank for the system default.
+     */
+    public void setScratchDirectory(String dir) {
+        scratchDir = dir;
+    }
+
+    /**
+     * @return the memory settings selected for this booklet.
+     */
+    private MemoryUsageSetting getMUS() {
+        return getMUS(memoryMode, maxHeap, scratchDir);
+    }
+
+    /**
+     * Find how many worker threads to use. Each loads its own copy of the
+     * source, so the count is limited by the free heap, estimated from the
+     * size of the source file.
+     *
+     * @param sigCount number of signatures to impose.
+     * @return the number of workers, 1 to impose sequentially.
+     */
+    private int getWorkerCount(int sigCount) {
+        final int wanted = Math.min(Math.min(threads, sigCount), MAX_WORKERS);
+        if (wanted <= 1) {
+            return 1;
+        }
+
+        final Runtime runtime = Runtime.getRuntime();
+        final long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        final long copy = Math.max(1, COPY_FACTOR * new File(sourcePDF).length());
+        final int workers = (int)Math.max(1, Math.min(wanted, free / 2 / copy));
+        if (workers < wanted) {
+            Debug.info(DD, "Using %d of %d threads, heap is limited", workers, threads);
+        }
+
+        return workers;
+    }
+
+    /**
+     * Register a listener to be notified as each sheet is generated. The 
+     * listener is called on the thread running genBooklet(), or on worker 
+     * threads if more than one thread is used.
+     * 
+     * @param progress listener to notify, or null for none.
+     */
+    public void setProgressListener(ProgressListener progress) {
+        listener = progress;
+    }
+
+    /**
+     * Request that a running genBooklet() stops at the next sheet boundary. 
+     * No output file is written for a cancelled booklet. Safe to call from 
+     * any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if cancel() has been called, false otherwise.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get the measurements of the last (or current) genBooklet(). Every job
+     * is also added to the BookStats MBean.
+     *
+     * @return the phase times and counts of the job.
+     */
+    public JobStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Count a completed sheet and notify the listener, if any.
+     */
+    private void sheetDone() {
+        final int done = sheetsDone.incrementAndGet();
+        stats.addSheet();
+        if (listener != null) {
+            listener.progress(done, sheetsTotal);
+        }
+    }
+
+
+    /**
+     * Generate a booklet style PDF. Each signature is written to outputPDF as
+     * soon as it is imposed, so memory use is bounded by the signature size
+     * rather than the size of the booklet.
+     * 
+     * @return true if the booklet was written to outputPDF, false if 
+     * generation failed or was cancelled.
+     */
+    public boolean genBooklet() {
+        boolean saved = false;
+        stats = new JobStats();
+        BookStats.getInstance().jobStarted();
+        JobEvent event = new JobEvent();
+        event.begin();
+        sheetsDone.set(0);
+        plan = getLayout();
+        sheetsTotal = plan.getSheetCount();
+        final int sigCount = plan.getSignatureCount();
+
+        try {
+            final String key = cache == null ? null : cache.keyOf(sourcePDF, getSettings());
+            if (key != null && cache.fetch(key, outputPDF)) {
+                sheetsDone.set(sheetsTotal);
+                if (listener != null) {
+                    listener.progress(sheetsTotal, sheetsTotal);
+                }
+                stats.setBytesWritten(new File(outputPDF).length());
+                Debug.info(DD, "File copied from cache to: %s", outputPDF);
+                recordCached();
+                saved = true;
+
+                return saved;
+            }
+
+            outputDoc = null;
+            try {
+                outputDoc = new PDDocument(getMUS());
+                openPrevious();
+                write(sigCount);
+                saved = !cancelled;
+            } finally {
+                if (outputDoc != null) {
+                    outputDoc.close();
+                }
+                closeWorkerDocs();
+                closePrevious(saved);
+            }
+
+            if (saved) {
+                if (key != null) {
+                    cache.store(key, outputPDF);
+                }
+                Debug.info(DD, "File created in: %s", outputPDF);
+            } else if (cancelled) {
+                Debug.info(DD, "Generation cancelled: %s", outputPDF);
+            }
+        } catch (IOException e) {
+            Debug.critical(DD, e.getMessage());
+        } finally {
+            stats.stop();
+            BookStats.getInstance().jobEnded(stats, saved, cancelled);
+            if (event.shouldCommit()) {
+                event.source = sourcePDF;
+                event.output = outputPDF;
+                event.pages = (int)stats.getPages();
+                event.sheets = (int)stats.getSheets();
+                event.sheetCount = sheetCount;
+                event.threads = threads;
+                event.memoryMode = memoryMode;
+                event.bytesWritten = stats.getBytesWritten();
+                event.saved = saved;
+                event.cancelled = cancelled;
+                event.commit();
+            }
+        }
+
+        return saved;
+    }
+
+    /**
+     * Impose and write all signatures to outputPDF, then complete it unless
+     * cancelled.
+     *
+     * @param sigCount number of signatures to impose.
+     */
+    private void write(int sigCount) throws IOException {
+        try (StreamingWriter writer = new StreamingWriter(outputPDF, outputDoc.getVersion(), compress)) {
+            final int workers = getWorkerCount(sigCount);
+            if (workers > 1) {
+                imposeParallel(writer, sigCount, workers);
+            } else {
+                imposeSequential(writer, sigCount);
+            }
+
+            if (!cancelled) {
+                final long start = System.nanoTime();
+                SaveEvent save = new SaveEvent();
+                save.begin();
+                final long position = writer.getPosition();
+                writer.finish(outputDoc);
+                stats.addTime(JobStats.WRITE, start);
+                if (save.shouldCommit()) {
+                    save.signature = -1;
+                    save.bytes = writer.getPosition() - position;
+                    save.commit();
+                }
+                stats.setBytesWritten(writer.getPosition());
+            }
+        }
+    }
+
+    /**
+     * Impose all signatures in this thread, directly into outputDoc, using 
+     * the shared source document, writing each signature when it is done.
+     *
+     * @param writer to write the sheets with.
+     * @param sigCount number of signatures to impose.
+     */
+    private void imposeSequential(StreamingWriter writer, int sigCount)
+            throws IOException {
+        final long start = System.nanoTime();
+        LoadEvent load = new LoadEvent();
+        load.begin();
+        try (DocumentCache.Handle source = DocumentCache.acquire(sourcePDF, getMUS())) {
+            inputDoc = source.getDocument();
+
+            PageIndex index = new PageIndex(inputDoc);
+            final ImpositionPlan placed = plan.place(pageSize, index);
+            stats.addTime(JobStats.LOAD, start);
+            commitLoadEvent(load, index);
+            // One dedup for the job, so each resource is only digested once.
+            ResourceDedup dedup = new ResourceDedup();
+            SheetComposer composer = new SheetComposer(inputDoc, index, outputDoc, pageSize);
+            composer.setUseLayers(layers);
+            composer.setStats(stats);
+            composer.setDedup(dedup);
+
+            for (int sig = 0; sig < sigCount && !cancelled; ++sig) {
+                if (isReusable(sig)) {
+                    writeReused(writer, dedup, sig);
+                    continue;
+                }
+
+                // Written sheets are removed, so count them for layer names.
+                composer.setSideOffset(2 * sheetCount * sig);
+                addSignatureToPdf(composer, placed, sig);
+                writeSheets(writer, outputDoc, dedup, sig);
+            }
+            Debug.trace(DD, "Shared resources: %d", dedup.getReplacedCount());
+        }
+    }
+
+    /**
+     * Impose signatures concurrently. PDDocument is not thread safe, so each 
+     * worker thread loads its own copy of the source and each signature is
+     * imposed into a document of its own. The signatures are written in 
+     * order as they complete, with resources duplicated between them shared 
+     * again. Only a few signatures per thread are in progress at a time, and
+     * in MIXED mode each worker gets an equal share of the heap limit.
+     *
+     * @param writer to write the sheets with.
+     * @param sigCount number of signatures to impose.
+     * @param workers number of worker threads.
+     */
+    private void imposeParallel(StreamingWriter writer, int sigCount,
+            int workers) throws IOException {
+        final int window = 2 * workers;
+        workerMUS = getMUS(memoryMode, Math.max(1, maxHeap / workers), scratchDir);
+        workerPlan = null;
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ThreadLocal<PageIndex> sources = new ThreadLocal<>();
+        Deque<Future<PDDocument>> results = new ArrayDeque<>();
+
+        try {
+            ResourceDedup dedup = new ResourceDedup();
+            int next = 0;
+            int written = 0;
+            while (!cancelled && (next < sigCount || !results.isEmpty())) {
+                while (next < sigCount && results.size() < window) {
+                    final int sig = next++;
+                    if (isReusable(sig)) {
+                        results.add(CompletableFuture.completedFuture(null));
+                    } else {
+                        results.add(executor.submit(() -> imposeWorker(sources, sig)));
+                    }
+                }
+
+                // Write the oldest signature, then release it.
+                PDDocument sheets = results.poll().get();
+                if (sheets == null) {
+                    writeReused(writer, dedup, written++);
+                    continue;
+                }
+                writeSheets(writer, sheets, dedup, written++);
+                mergeLayers(sheets);
+                closeWorkerDoc(sheets);
+            }
+            Debug.trace(DD, "Shared resources: %d", dedup.getReplacedCount());
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            cancelled = true;
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // Worker documents are closed later, so wait for the workers.
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Impose a signature into a new document using the private copy of the 
+     * source for this thread. Runs on a worker thread.
+     *
+     * @param sources the index of the source copy for each worker thread.
+     * @param sig index of the signature to impose.
+     * @return the document holding the imposed sheets.
+     */
+    private PDDocument imposeWorker(ThreadLocal<PageIndex> sources, int sig)
+            throws IOException {
+        PageIndex index = sources.get();
+        if (index == null) {
+            final long start = System.nanoTime();
+            LoadEvent load = new LoadEvent();
+            load.begin();
+            PDDocument source = PDDocument.load(new File(sourcePDF), workerMUS);
+            addWorkerDoc(source);
+            index = new PageIndex(source);
+            sources.set(index);
+            // Every copy has the same page sizes, so the plan is placed once.
+            if (workerPlan == null) {
+                workerPlan = plan.place(pageSize, index);
+            }
+            stats.addTime(JobStats.LOAD, start);
+            commitLoadEvent(load, index);
+        }
+
+        PDDocument sheets = new PDDocument(workerMUS);
+        addWorkerDoc(sheets);
+
+        // Resources are shared across the signatures as they are written.
+        SheetComposer composer = new SheetComposer(index.getDocument(), index, sheets, pageSize);
+        composer.setUseLayers(layers);
+        composer.setStats(stats);
+        composer.setDedup(null);
+        // Every preceding signature is full, so has 2 sides per sheet.
+        composer.setSideOffset(2 * sheetCount * sig);
+
+        addSignatureToPdf(composer, workerPlan, sig);
+
+        return sheets;
+    }
+
+    /**
+     * Write the sheets of a document and remove them from it, so they can be
+     * released.
+     *
+     * @param writer to write the sheets with.
+     * @param doc holding the sheets.
+     * @param dedup to share the resources of the sheets with those already 
+     * written.
+     * @param sig index of the signature the sheets belong to.
+     */
+    private void writeSheets(StreamingWriter writer, PDDocument doc,
+            ResourceDedup dedup, int sig) throws IOException {
+        final long start = System.nanoTime();
+        SaveEvent event = new SaveEvent();
+        event.begin();
+        final long position = writer.getPosition();
+        final int first = writer.getPageCount();
+        List<PDPage> sheets = new ArrayList<>();
+        for (PDPage page : doc.getPages()) {
+            sheets.add(page);
+        }
+
+        for (PDPage page : sheets) {
+            shareFormResources(dedup, page);
+            writer.writePage(page);
+            doc.getPages().remove(page);
+        }
+
+        stats.addTime(JobStats.WRITE, start);
+        if (signatures != null) {
+            signatures.put(getSignatureKey(sig), first, sheets.size());
+        }
+        if (event.shouldCommit()) {
+            event.signature = sig;
+            event.sides = sheets.size();
+            event.bytes = writer.getPosition() - position;
+            event.commit();
+        }
+
+        if (!memoryMode.equals(HEAP)) {
+            stats.sampleScratch(getScratchUsage());
+        }
+    }
+
+    /**
+     * Complete and record a LoadEvent, if JFR is recording it.
+     */
+    private void commitLoadEvent(LoadEvent event, PageIndex index) {
+        if (event.shouldCommit()) {
+            event.source = sourcePDF;
+            event.fileSize = new File(sourcePDF).length();
+            event.pages = index.size();
+            event.memoryMode = memoryMode;
+            event.commit();
+        }
+    }
+
+    /**
+     * Find the space currently used by PDFBox scratch files. The scratch
+     * directory may be shared, so this includes the files of any other jobs
+     * running at the same time.
+     *
+     * @return total size of the scratch files in bytes.
+     */
+    private long getScratchUsage() {
+        final String path = scratchDir.isBlank() ? System.getProperty("java.io.tmpdir") : scratchDir;
+        File[] files = new File(path).listFiles((dir, name) ->
+            name.startsWith("PDFBox") && name.endsWith(".tmp"));
+        if (files == null) {
+            return 0;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+
+        return total;
+    }
+
+    /**
+     * Share identical resources of the forms on a page with those already 
+     * seen in the output.
+     */
+    private static void shareFormResources(ResourceDedup dedup, PDPage page)
+            throws IOException {
+        PDResources resources = page.getResources();
+        if (resources == null) {
+            return;
+        }
+
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xobject = resources.getXObject(name);
+            if (xobject instanceof PDFormXObject) {
+                dedup.dedup(((PDFormXObject)xobject).getResources());
+            }
+        }
+    }
+
+    /**
+     * Identify this version of the source, and its pages if they can be 
+     * hashed, for the signature keys.
+     */
+    private void identifySource() throws IOException {
+        File source = new File(sourcePDF);
+        sourceId = source.getCanonicalPath() + "|" + source.length() + "|" + source.lastModified();
+        hashes = null;
+        if (pageHashes != null) {
+            try {
+                hashes = pageHashes.get(sourcePDF, getMUS());
+            } catch (IOException e) {
+                Debug.warning(DD, "Pages not hashed: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Open the output of the previous run, if there is one, and start 
+     * recording the signatures of this run.
+     */
+    private void openPrevious() throws IOException {
+        if (signatures == null) {
+            return;
+        }
+
+        identifySource();
+        File file = signatures.getPrevious();
+        if (file != null) {
+            PDDocument doc = PDDocument.load(file, getMUS());
+            addWorkerDoc(doc);
+            previous = new PageIndex(doc);
+        }
+        signatures.begin();
+    }
+
+    /**
+     * Release the output of the previous run, then replace it with this run.
+     *
+     * @param saved true if this run was written, false if it was not.
+     */
+    private void closePrevious(boolean saved) {
+        if (signatures == null) {
+            return;
+        }
+
+        // The previous document was closed with the worker documents.
+        previous = null;
+        signatures.end(saved ? outputPDF : null);
+    }
+
+    /**
+     * Record the signatures of an output fetched from the OutputCache as this
+     * run, so the next run can reuse them as if they had been imposed. The 
+     * sides of each signature follow from the plan, and are only recorded if
+     * they add up to the pages of the fetched output.
+     */
+    private void recordCached() throws IOException {
+        if (signatures == null) {
+            return;
+        }
+
+        int sides = 0;
+        for (int sig = 0; sig < plan.getSignatureCount(); ++sig) {
+            sides += plan.getSideCount(sig);
+        }
+        final int pages = PageCountProbe.probe(outputPDF);
+        if (pages != sides) {
+            Debug.warning(DD, "Cached output has %s pages, expected %s, signatures not recorded",
+                pages, sides);
+
+            return;
+        }
+
+        identifySource();
+        signatures.begin();
+        int first = 0;
+        for (int sig = 0; sig < plan.getSignatureCount(); ++sig) {
+            final int count = plan.getSideCount(sig);
+            signatures.put(getSignatureKey(sig), first, count);
+            first += count;
+        }
+        signatures.end(outputPDF);
+    }
+
+    /**
+     * Identify the source pages and settings of a signature, so that it can 
+     * be found in the previous run. The pages are identified by their hashes
+     * if available, otherwise by their position in this version of the 
+     * source. With layers, the layer names depend on the position of the 
+     * signature, so the position is included.
+     *
+     * @param sig index of the signature.
+     * @return the key of the signature.
+     */
+    private String getSignatureKey(int sig) {
+        final int first = plan.getSignatureFirstPage(sig);
+        final int last = plan.getSignatureLastPage(sig);
+
+        final String pages = hashes != null && last <= hashes.length ?
+            "pages=" + PageHashes.combine(hashes, first, last) :
+            sourceId + " pages=" + first + "-" + last;
+
+        return pages +
+            " page=" + pageSize.getWidth() + "x" + pageSize.getHeight() +
+            " sheets=" + sheetCount + " rotate=" + rotate +
+            (layers ? " layers=" + (2 * sheetCount * sig) : "");
+    }
+
+    /**
+     * @return true if the given signature can be copied from the previous 
+     * run, false if it must be imposed.
+     */
+    private boolean isReusable(int sig) {
+        return previous != null && signatures.get(getSignatureKey(sig)) != null;
+    }
+
+    /**
+     * Write the sheets of a signature from the previous run.
+     *
+     * @param writer to write the sheets with.
+     * @param dedup to share the resources of the sheets with those already 
+     * written.
+     * @param sig index of the signature to write.
+     */
+    private void writeReused(StreamingWriter writer, ResourceDedup dedup,
+            int sig) throws IOException {
+        final long start = System.nanoTime();
+        final String key = getSignatureKey(sig);
+        final SignatureCache.Entry entry = signatures.get(key);
+        final int first = writer.getPageCount();
+
+        for (int i = 0; i < entry.getCount(); ++i) {
+            final int pn = entry.getFirst() + i;
+            PDPage page = previous.getPage(pn);
+            shareFormResources(dedup, page);
+            addLayers(page);
+            writer.writePage(page);
+            previous.release(pn);
+        }
+        signatures.put(key, first, entry.getCount());
+        stats.addTime(JobStats.WRITE, start);
+
+        stats.addPages(plan.getSignatureLastPage(sig) - plan.getSignatureFirstPage(sig));
+        for (int side = 0; side < entry.getCount(); side += 2) {
+            sheetDone();
+        }
+        Debug.trace(DD, () -> "Reused signature " + sig);
+    }
+
+    /**
+     * Declare the optional content groups (layers) used by a sheet in 
+     * outputDoc.
+     */
+    private void addLayers(PDPage page) {
+        PDResources resources = page.getResources();
+        if (resources == null) {
+            return;
+        }
+
+        PDOptionalContentProperties to = null;
+        for (COSName name : resources.getPropertiesNames()) {
+            PDPropertyList properties = resources.getProperties(name);
+            if (!(properties instanceof PDOptionalContentGroup)) {
+                continue;
+            }
+
+            if (to == null) {
+                PDDocumentCatalog catalog = outputDoc.getDocumentCatalog();
+                to = catalog.getOCProperties();
+                if (to == null) {
+                    to = new PDOptionalContentProperties();
+                    catalog.setOCProperties(to);
+                }
+            }
+            to.addGroup((PDOptionalContentGroup)properties);
+        }
+    }
+
+    /**
+     * Copy any optional content groups (layers) of a worker document into
+     * outputDoc, so the layers of the merged sheets are still declared.
+     */
+    private void mergeLayers(PDDocument sheets) {
+        PDOptionalContentProperties from = sheets.getDocumentCatalog().getOCProperties();
+        if (from == null) {
+            return;
+        }
+
+        PDDocumentCatalog catalog = outputDoc.getDocumentCatalog();
+        PDOptionalContentProperties to = catalog.getOCProperties();
+        if (to == null) {
+            to = new PDOptionalContentProperties();
+            catalog.setOCProperties(to);
+        }
+
+        for (PDOptionalContentGroup group : from.getOptionalContentGroups()) {
+            to.addGroup(group);
+        }
+    }
+
+    private synchronized void addWorkerDoc(PDDocument doc) {
+        workerDocs.add(doc);
+    }
+
+    private void closeWorkerDoc(PDDocument doc) {
+        synchronized (this) {
+            workerDocs.remove(doc);
+        }
+
+        try {
+            doc.close();
+        } catch (IOException e) {
+            Debug.major(DD, e.getMessage());
+        }
+    }
+
+    /**
+     * Close any remaining worker documents.
+     */
+    private synchronized void closeWorkerDocs() {
+        for (PDDocument doc : workerDocs) {
+            try {
+                doc.close();
+            } catch (IOException e) {
+                Debug.major(DD, e.getMessage());
+            }
+        }
+        workerDocs.clear();
+    }
+
+    /**
+     * Add a signature to the document of the given composer.
+     *
+     * @param composer used to add the sheets.
+     * @param placed plan of the booklet, placed for the source.
+     * @param sig index of the signature to add.
+     */
+    private void addSignatureToPdf(SheetComposer composer, ImpositionPlan placed,
+            int sig) throws IOException {
+        final int first = placed.getSignatureFirstPage(sig);
+        final int last = placed.getSignatureLastPage(sig);
+
+        SignatureEvent event = new SignatureEvent();
+        event.begin();
+        addSheetsToPdf(composer, placed, sig);
+        stats.addPages(last - first);
+        if (event.shouldCommit()) {
+            event.signature = sig;
+            event.firstPage = first + 1;
+            event.lastPage = last;
+            event.sheets = placed.getFirstSheet(sig + 1) - placed.getFirstSheet(sig);
+            event.commit();
+        }
+
+        Debug.trace(DD, () -> "Pages " + (first+1) + " to " + last);
+    }
+
+    /**
+     * Add the sheets of a signature to the PDF document, as planned.
+     *
+     * @param composer used to add the sheets.
+     * @param placed plan of the booklet, placed for the source.
+     * @param sig index of the signature the sheets belong to.
+     */
+    private void addSheetsToPdf(SheetComposer composer, ImpositionPlan placed,
+            int sig) throws IOException {
+        for (int sheet = placed.getFirstSheet(sig); sheet < placed.getFirstSheet(sig + 1); ++sheet) {
+            if (cancelled) {
+                return;
+            }
+
+            SheetEvent event = new SheetEvent();
+            event.begin();
+            if (event.isEnabled()) {
+                event.signature = sig;
+                event.sheet = sheet - placed.getFirstSheet(sig);
+                event.frontLeft = placed.getPage(sheet, ImpositionPlan.FRONT, ImpositionPlan.LEFT) + 1;
+                event.frontRight = placed.getPage(sheet, ImpositionPlan.FRONT, ImpositionPlan.RIGHT) + 1;
+                event.backLeft = placed.getPage(sheet, ImpositionPlan.BACK, ImpositionPlan.LEFT) + 1;
+                event.backRight = placed.getPage(sheet, ImpositionPlan.BACK, ImpositionPlan.RIGHT) + 1;
+                event.width = pageSize.getWidth();
+                event.height = pageSize.getHeight();
+            }
+
+            composer.addSide(placed, sheet, ImpositionPlan.FRONT);
+            composer.addSide(placed, sheet, ImpositionPlan.BACK);
+            event.commit();
+            sheetDone();
+        }
+    }
+
+}
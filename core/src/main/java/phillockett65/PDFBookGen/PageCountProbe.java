@@ -0,0 +1,573 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageCountProbe is the static class that reads the page count of a PDF
+ * without parsing the document. It seeks to the cross reference section named
+ * by the final 'startxref', follows any /Prev chain to find the objects, then
+ * reads just the /Root catalog and the root /Pages node to get its /Count.
+ *
+ * Both classic cross reference tables and the cross reference streams of PDF
+ * 1.5 are understood, including objects kept in object streams, as long as
+ * the streams are Flate encoded. Indirect counts or anything unexpected make
+ * the probe give up (return -1), in which case the caller should fall back
+ * to loading the document.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import phillockett65.Debug.Debug;
+
+public class PageCountProbe {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private static final int TAIL = 2048;           // Bytes searched for startxref.
+    private static final int OBJECT = 64 * 1024;    // Max bytes read for an object.
+    private static final int TRAILER = 16 * 1024;   // Max bytes read for a trailer.
+    private static final int STREAM = 16 * 1024 * 1024; // Max bytes decoded from a stream.
+
+    private static final Pattern STARTXREF = Pattern.compile("startxref\\s+(\\d+)");
+    private static final Pattern SUBSECTION = Pattern.compile("(\\d+)\\s+(\\d+)");
+    private static final Pattern ENTRY = Pattern.compile("(\\d{1,10})\\s+(\\d{1,5})\\s+([nf])");
+    private static final Pattern ROOT = Pattern.compile("/Root\\s+(\\d+)\\s+(\\d+)\\s+R");
+    private static final Pattern PREV = Pattern.compile("/Prev\\s+(\\d+)");
+    private static final Pattern PAGES = Pattern.compile("/Pages\\s+(\\d+)\\s+(\\d+)\\s+R");
+    private static final Pattern COUNT = Pattern.compile("/Count\\s+(\\d+)(\\s+\\d+\\s+R)?");
+    private static final Pattern XREFSTM = Pattern.compile("/XRefStm\\s+(\\d+)");
+    private static final Pattern OBJ = Pattern.compile("(\\d+)\\s+(\\d+)\\s+obj");
+    private static final Pattern STREAM_START = Pattern.compile("stream(\\r\\n|\\n|\\r)");
+    private static final Pattern FILTER = Pattern.compile("/Filter\\s*\\[?\\s*/(\\w+)");
+    private static final Pattern W = Pattern.compile("/W\\s*\\[\\s*(\\d+)\\s+(\\d+)\\s+(\\d+)\\s*\\]");
+    private static final Pattern INDEX = Pattern.compile("/Index\\s*\\[([\\d\\s]*)\\]");
+    private static final Pattern SIZE = Pattern.compile("/Size\\s+(\\d+)");
+    private static final Pattern PREDICTOR = Pattern.compile("/Predictor\\s+(\\d+)");
+    private static final Pattern COLUMNS = Pattern.compile("/Columns\\s+(\\d+)");
+    private static final Pattern N = Pattern.compile("/N\\s+(\\d+)");
+    private static final Pattern FIRST = Pattern.compile("/First\\s+(\\d+)");
+
+
+    /************************************************************************
+     * Support code for the Initialization of the PageCountProbe.
+     */
+
+    /**
+     * Private default constructor - static class, not instantiated.
+     */
+    private PageCountProbe() {
+    }
+
+
+
+    /************************************************************************
+     * Support code for reading the file.
+     */
+
+    /**
+     * Where each object is found, either at an offset in the file or in an
+     * object stream. Sections are read newest first, so the first location
+     * noted for an object is the current one.
+     */
+    private static class Locations {
+        private final Map<Integer, Long> offsets = new HashMap<>();
+        private final Map<Integer, Integer> compressed = new HashMap<>();
+        private final Map<Integer, Map<Integer, String>> streams = new HashMap<>();
+
+        private boolean isKnown(int num) {
+            return offsets.containsKey(num) || compressed.containsKey(num);
+        }
+
+        private void addOffset(int num, long offset) {
+            if (!isKnown(num)) {
+                offsets.put(num, offset);
+            }
+        }
+
+        private void addCompressed(int num, int stream) {
+            if (!isKnown(num)) {
+                compressed.put(num, stream);
+            }
+        }
+    }
+
+    /**
+     * The dictionary text and decoded data of a stream object.
+     */
+    private static class Stream {
+        private final String dict;
+        private final byte[] data;
+
+        private Stream(String dict, byte[] data) {
+            this.dict = dict;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Read up to 'length' bytes from 'offset' as ISO-8859-1 text, which maps
+     * each byte to one char so indices in the text are file offsets.
+     */
+    private static String read(RandomAccessFile file, long offset, int length)
+            throws IOException {
+        final long available = file.length() - offset;
+        if (offset < 0 || available <= 0) {
+            throw new IOException("Offset outside file " + offset);
+        }
+
+        byte[] buffer = new byte[(int)Math.min(length, available)];
+        file.seek(offset);
+        file.readFully(buffer);
+
+        return new String(buffer, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read the classic cross reference table at 'offset', adding any object
+     * offsets not already known, and return the trailer dictionary text.
+     */
+    private static String readXref(RandomAccessFile file, long offset,
+            Locations locations) throws IOException {
+        String header = read(file, offset, 4);
+        if (!header.equals("xref")) {
+            throw new IOException("Not a classic xref table at " + offset);
+        }
+
+        long pos = offset + 4;
+        while (true) {
+            String text = read(file, pos, 64);
+            int skip = 0;
+            while (skip < text.length() && Character.isWhitespace(text.charAt(skip))) {
+                ++skip;
+            }
+            pos += skip;
+            text = text.substring(skip);
+
+            if (text.startsWith("trailer")) {
+                return read(file, pos, TRAILER);
+            }
+
+            // Subsection header: first object number and entry count.
+            Matcher sub = SUBSECTION.matcher(text);
+            if (!sub.lookingAt()) {
+                throw new IOException("Bad xref subsection at " + pos);
+            }
+            final int first = Integer.parseInt(sub.group(1));
+            final int count = Integer.parseInt(sub.group(2));
+            pos += sub.end();
+
+            // Entries are nominally 20 bytes, allow for sloppy line endings.
+            String entries = read(file, pos, count * 21 + 64);
+            Matcher entry = ENTRY.matcher(entries);
+            int end = 0;
+            for (int i = 0; i < count; ++i) {
+                if (!entry.find(end)) {
+                    throw new IOException("Bad xref entry at " + (pos + end));
+                }
+                if (entry.group(3).equals("n")) {
+                    locations.addOffset(first + i, Long.parseLong(entry.group(1)));
+                }
+                end = entry.end();
+            }
+            pos += end;
+        }
+    }
+
+    /**
+     * Decompress the Flate encoded data starting at 'offset'. The end of the
+     * data is found by the decompression, so /Length is not needed.
+     */
+    private static byte[] inflate(RandomAccessFile file, long offset)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] input = new byte[8 * 1024];
+        byte[] output = new byte[8 * 1024];
+
+        try {
+            file.seek(offset);
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    final int count = file.read(input);
+                    if (count < 0) {
+                        throw new IOException("Stream truncated at " + offset);
+                    }
+                    inflater.setInput(input, 0, count);
+                }
+
+                final int count = inflater.inflate(output);
+                if (count == 0 && !inflater.needsInput() && !inflater.finished()) {
+                    throw new IOException("Stream not decodable at " + offset);
+                }
+                out.write(output, 0, count);
+                if (out.size() > STREAM) {
+                    throw new IOException("Stream too large to probe at " + offset);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad stream at " + offset + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Undo the PNG predictor of decoded stream data, with one byte per 
+     * sample, as used by cross reference streams.
+     */
+    private static byte[] unpredict(byte[] data, int columns)
+            throws IOException {
+        final int rows = data.length / (columns + 1);
+        byte[] out = new byte[rows * columns];
+
+        for (int row = 0; row < rows; ++row) {
+            final int in = row * (columns + 1);
+            final int at = row * columns;
+            final int type = data[in];
+            for (int i = 0; i < columns; ++i) {
+                final int raw = data[in + 1 + i] & 0xFF;
+                final int left = i > 0 ? out[at + i - 1] & 0xFF : 0;
+                final int up = row > 0 ? out[at - columns + i] & 0xFF : 0;
+                final int corner = i > 0 && row > 0 ? out[at - columns + i - 1] & 0xFF : 0;
+
+                int value;
+                switch (type) {
+                    case 0: value = raw; break;
+                    case 1: value = raw + left; break;
+                    case 2: value = raw + up; break;
+                    case 3: value = raw + (left + up) / 2; break;
+                    case 4: {
+                        final int p = left + up - corner;
+                        final int pa = Math.abs(p - left);
+                        final int pb = Math.abs(p - up);
+                        final int pc = Math.abs(p - corner);
+                        value = raw + (pa <= pb && pa <= pc ? left : pb <= pc ? up : corner);
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown PNG predictor " + type);
+                }
+                out[at + i] = (byte)value;
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Read the stream object at 'offset', decoding its data.
+     */
+    private static Stream readStream(RandomAccessFile file, long offset)
+            throws IOException {
+        final String text = read(file, offset, TRAILER);
+        Matcher obj = OBJ.matcher(text);
+        if (!obj.lookingAt()) {
+            throw new IOException("No object at " + offset);
+        }
+
+        Matcher start = STREAM_START.matcher(text);
+        if (!start.find()) {
+            throw new IOException("No stream at " + offset);
+        }
+        final String dict = text.substring(obj.end(), start.start());
+
+        Matcher filter = FILTER.matcher(dict);
+        if (!filter.find() || !filter.group(1).equals("FlateDecode")) {
+            throw new IOException("Stream at " + offset + " not Flate encoded");
+        }
+        byte[] data = inflate(file, offset + start.end());
+
+        Matcher predictor = PREDICTOR.matcher(dict);
+        if (predictor.find() && Integer.parseInt(predictor.group(1)) > 1) {
+            if (Integer.parseInt(predictor.group(1)) < 10) {
+                throw new IOException("TIFF predictor at " + offset);
+            }
+            Matcher columns = COLUMNS.matcher(dict);
+            data = unpredict(data, columns.find() ? Integer.parseInt(columns.group(1)) : 1);
+        }
+
+        return new Stream(dict, data);
+    }
+
+    /**
+     * Get the big-endian number of 'width' bytes at 'offset' in 'data'.
+     */
+    private static long field(byte[] data, int offset, int width) {
+        long value = 0;
+        for (int i = 0; i < width; ++i) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * Read the cross reference stream at 'offset', adding the locations of
+     * any objects not already known, and return its dictionary text, which
+     * also serves as the trailer.
+     */
+    private static String readXrefStream(RandomAccessFile file, long offset,
+            Locations locations) throws IOException {
+        final Stream stream = readStream(file, offset);
+
+        Matcher w = W.matcher(stream.dict);
+        if (!w.find()) {
+            throw new IOException("No /W in xref stream at " + offset);
+        }
+        final int type = Integer.parseInt(w.group(1));
+        final int field2 = Integer.parseInt(w.group(2));
+        final int field3 = Integer.parseInt(w.group(3));
+        final int width = type + field2 + field3;
+
+        // Pairs of first object number and count, by default all objects.
+        int[] index;
+        Matcher m = INDEX.matcher(stream.dict);
+        if (m.find()) {
+            final String[] parts = m.group(1).trim().split("\\s+");
+            index = new int[parts.length];
+            for (int i = 0; i < parts.length; ++i) {
+                index[i] = Integer.parseInt(parts[i]);
+            }
+        } else {
+            m = SIZE.matcher(stream.dict);
+            if (!m.find()) {
+                throw new IOException("No /Size in xref stream at " + offset);
+            }
+            index = new int[] { 0, Integer.parseInt(m.group(1)) };
+        }
+
+        int pos = 0;
+        for (int section = 0; section + 1 < index.length; section += 2) {
+            for (int i = 0; i < index[section + 1]; ++i, pos += width) {
+                if (pos + width > stream.data.length) {
+                    throw new IOException("Short xref stream at " + offset);
+                }
+
+                // A missing type field means type 1, an object in the file.
+                final long kind = type == 0 ? 1 : field(stream.data, pos, type);
+                final long value = field(stream.data, pos + type, field2);
+                final int num = index[section] + i;
+                if (kind == 1) {
+                    locations.addOffset(num, value);
+                } else if (kind == 2) {
+                    locations.addCompressed(num, (int)value);
+                }
+            }
+        }
+
+        return stream.dict;
+    }
+
+    /**
+     * Read the cross reference section at 'offset', either a classic table or
+     * a stream, and return the trailer dictionary text.
+     */
+    private static String readSection(RandomAccessFile file, long offset,
+            Locations locations) throws IOException {
+        if (!read(file, offset, 4).equals("xref")) {
+            return readXrefStream(file, offset, locations);
+        }
+
+        String trailer = readXref(file, offset, locations);
+        final int close = trailer.indexOf(">>");
+        // Trailer dictionaries are flat, so the first '>>' ends it.
+        if (close > 0) {
+            trailer = trailer.substring(0, close);
+        }
+
+        // A hybrid file also lists its compressed objects in a stream.
+        Matcher stm = XREFSTM.matcher(trailer);
+        if (stm.find()) {
+            readXrefStream(file, Long.parseLong(stm.group(1)), locations);
+        }
+
+        return trailer;
+    }
+
+    /**
+     * Read the objects of the object stream 'num', by object number.
+     */
+    private static Map<Integer, String> readObjectStream(RandomAccessFile file,
+            int num, Locations locations) throws IOException {
+        Long offset = locations.offsets.get(num);
+        if (offset == null) {
+            throw new IOException("Object stream " + num + " not in xref");
+        }
+
+        final Stream stream = readStream(file, offset);
+        Matcher n = N.matcher(stream.dict);
+        Matcher first = FIRST.matcher(stream.dict);
+        if (!n.find() || !first.find()) {
+            throw new IOException("Bad object stream " + num);
+        }
+        final int count = Integer.parseInt(n.group(1));
+        final int start = Integer.parseInt(first.group(1));
+        final String text = new String(stream.data, StandardCharsets.ISO_8859_1);
+
+        // The header holds pairs of object number and offset from 'start'.
+        int[] nums = new int[count];
+        int[] offsets = new int[count];
+        Matcher pair = SUBSECTION.matcher(text);
+        int end = 0;
+        for (int i = 0; i < count; ++i) {
+            if (!pair.find(end) || pair.start() >= start) {
+                throw new IOException("Bad object stream header " + num);
+            }
+            nums[i] = Integer.parseInt(pair.group(1));
+            offsets[i] = Integer.parseInt(pair.group(2));
+            end = pair.end();
+        }
+
+        Map<Integer, String> objects = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            final int from = start + offsets[i];
+            final int to = i + 1 < count ? start + offsets[i + 1] : text.length();
+            objects.put(nums[i], text.substring(from, to));
+        }
+
+        return objects;
+    }
+
+    /**
+     * Read the text of object 'num' from its recorded location.
+     */
+    private static String readObject(RandomAccessFile file, int num,
+            Locations locations) throws IOException {
+        Long offset = locations.offsets.get(num);
+        if (offset == null) {
+            final Integer stream = locations.compressed.get(num);
+            if (stream == null) {
+                throw new IOException("Object " + num + " not in xref");
+            }
+
+            Map<Integer, String> objects = locations.streams.get(stream);
+            if (objects == null) {
+                objects = readObjectStream(file, stream, locations);
+                locations.streams.put(stream, objects);
+            }
+
+            final String text = objects.get(num);
+            if (text == null) {
+                throw new IOException("Object " + num + " not in object stream " + stream);
+            }
+
+            return text;
+        }
+
+        String text = read(file, offset, OBJECT);
+        if (!text.startsWith(num + " ")) {
+            throw new IOException("Object " + num + " not at offset " + offset);
+        }
+
+        final int end = text.indexOf("endobj");
+        if (end < 0) {
+            throw new IOException("Object " + num + " too large to probe");
+        }
+
+        return text.substring(0, end);
+    }
+
+
+
+    /************************************************************************
+     * Support code for static public interface.
+     */
+
+    /**
+     * Find the number of pages in a PDF document by reading only the cross
+     * reference sections, trailer, catalog and page tree root.
+     *
+     * @param path of the PDF document.
+     * @return the page count, or -1 if the file can't be probed.
+     */
+    public static int probe(String path) {
+        File source = new File(path);
+        if (!source.isFile()) {
+            return -1;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(source, "r")) {
+            final long length = file.length();
+            final long tailStart = Math.max(0, length - TAIL);
+            String tail = read(file, tailStart, TAIL);
+
+            Matcher start = STARTXREF.matcher(tail);
+            long xref = -1;
+            while (start.find()) {
+                xref = Long.parseLong(start.group(1));
+            }
+            if (xref < 0) {
+                throw new IOException("No startxref");
+            }
+
+            // Walk the xref chain, newest first, noting the first /Root seen.
+            Locations locations = new Locations();
+            Set<Long> visited = new HashSet<>();
+            int root = -1;
+            while (xref >= 0 && visited.add(xref)) {
+                final String trailer = readSection(file, xref, locations);
+
+                Matcher m = ROOT.matcher(trailer);
+                if (root < 0 && m.find()) {
+                    root = Integer.parseInt(m.group(1));
+                }
+
+                m = PREV.matcher(trailer);
+                xref = m.find() ? Long.parseLong(m.group(1)) : -1;
+            }
+            if (root < 0) {
+                throw new IOException("No /Root in trailer");
+            }
+
+            Matcher pages = PAGES.matcher(readObject(file, root, locations));
+            if (!pages.find()) {
+                throw new IOException("No /Pages in catalog");
+            }
+
+            String tree = readObject(file, Integer.parseInt(pages.group(1)), locations);
+            Matcher count = COUNT.matcher(tree);
+            if (!count.find() || count.group(2) != null) {
+                throw new IOException("No direct /Count in page tree root");
+            }
+
+            return Integer.parseInt(count.group(1));
+        } catch (IOException | RuntimeException e) {
+            Debug.trace(DD, "probe(%s) fallback: %s", path, e.getMessage());
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,382 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageHashes is a class that keeps a content hash of every page of a source
+ * document, covering the page boxes, rotation, content stream and resources,
+ * which is everything that is imposed. Signatures are then identified by the
+ * hashes of their pages, so when a new revision of a source is exported with
+ * only a few pages edited, the signatures holding unchanged pages are still
+ * found by the SignatureCache and only those with edited pages are imposed.
+ *
+ * The hashes of each source are saved in a small index file, so a source is
+ * only hashed again when it changes on disc. Resources shared between pages,
+ * such as fonts and images, are hashed once per document.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import phillockett65.Debug.Debug;
+
+public class PageHashes {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    // Changed whenever the way pages are hashed changes.
+    private static final String FORMAT = "PDFBookGen page hashes 1";
+
+    private static final String SUFFIX = ".idx";
+
+    private final File dir;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the PageHashes.
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param directory to keep the index files in, created if needed.
+     */
+    public PageHashes(String directory) {
+        dir = new File(directory);
+    }
+
+
+
+    /************************************************************************
+     * Support code for hashing pages.
+     */
+
+    /**
+     * Hashes the pages of one document, remembering the hash of each
+     * indirect object so that shared resources are only read once.
+     */
+    private static class Hasher {
+        // Marks an object being hashed, to cut reference cycles.
+        private static final byte[] BUSY = new byte[0];
+
+        private final Map<COSBase, byte[]> done = new IdentityHashMap<>();
+        private final byte[] buffer = new byte[64 * 1024];
+
+        private static void updateInt(MessageDigest md, long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                md.update((byte)(value >>> shift));
+            }
+        }
+
+        private static void updateBytes(MessageDigest md, byte[] bytes) {
+            updateInt(md, bytes.length);
+            md.update(bytes);
+        }
+
+        private static void updateRectangle(MessageDigest md, PDRectangle box) {
+            updateInt(md, Float.floatToIntBits(box.getLowerLeftX()));
+            updateInt(md, Float.floatToIntBits(box.getLowerLeftY()));
+            updateInt(md, Float.floatToIntBits(box.getUpperRightX()));
+            updateInt(md, Float.floatToIntBits(box.getUpperRightY()));
+        }
+
+        private byte[] hashOf(COSBase base) throws IOException {
+            MessageDigest md = OutputCache.createDigest();
+            update(md, base);
+
+            return md.digest();
+        }
+
+        private void update(MessageDigest md, COSBase base) throws IOException {
+            if (base instanceof COSObject) {
+                final COSBase target = ((COSObject)base).getObject();
+                if (target == null) {
+                    md.update((byte)'n');
+
+                    return;
+                }
+
+                byte[] hash = done.get(target);
+                if (hash == null) {
+                    done.put(target, BUSY);
+                    hash = hashOf(target);
+                    done.put(target, hash);
+                }
+                if (hash == BUSY) {
+                    md.update((byte)'r');
+                } else {
+                    md.update((byte)'o');
+                    md.update(hash);
+                }
+            } else if (base instanceof COSDictionary) {
+                final COSDictionary dict = (COSDictionary)base;
+
+                // Sorted, so the order in the file does not matter.
+                Map<String, COSBase> items = new TreeMap<>();
+                for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+                    if (!COSName.PARENT.equals(entry.getKey())) {
+                        items.put(entry.getKey().getName(), entry.getValue());
+                    }
+                }
+
+                md.update((byte)'d');
+                updateInt(md, items.size());
+                for (Map.Entry<String, COSBase> entry : items.entrySet()) {
+                    updateBytes(md, entry.getKey().getBytes(StandardCharsets.UTF_8));
+                    update(md, entry.getValue());
+                }
+
+                if (base instanceof COSStream) {
+                    md.update((byte)'s');
+                    try (InputStream in = ((COSStream)base).createRawInputStream()) {
+                        for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                            md.update(buffer, 0, n);
+                        }
+                    }
+                }
+            } else if (base instanceof COSArray) {
+                final COSArray array = (COSArray)base;
+                md.update((byte)'a');
+                updateInt(md, array.size());
+                for (int i = 0; i < array.size(); ++i) {
+                    update(md, array.get(i));
+                }
+            } else if (base instanceof COSName) {
+                md.update((byte)'/');
+                updateBytes(md, ((COSName)base).getName().getBytes(StandardCharsets.UTF_8));
+            } else if (base instanceof COSString) {
+                md.update((byte)'(');
+                updateBytes(md, ((COSString)base).getBytes());
+            } else if (base instanceof COSInteger) {
+                md.update((byte)'i');
+                updateInt(md, ((COSInteger)base).longValue());
+            } else if (base instanceof COSFloat) {
+                md.update((byte)'f');
+                updateInt(md, Float.floatToIntBits(((COSFloat)base).floatValue()));
+            } else if (base instanceof COSBoolean) {
+                md.update((byte)(((COSBoolean)base).getValue() ? 't' : 'F'));
+            } else {
+                md.update((byte)'n');
+            }
+        }
+
+        /**
+         * Hash everything that affects how a page is imposed.
+         */
+        public String hashOf(PDPage page) throws IOException {
+            MessageDigest md = OutputCache.createDigest();
+            updateRectangle(md, page.getMediaBox());
+            updateRectangle(md, page.getCropBox());
+            updateInt(md, page.getRotation());
+
+            md.update((byte)'c');
+            update(md, page.getCOSObject().getItem(COSName.CONTENTS));
+
+            // Resources may be inherited from the page tree.
+            final PDResources resources = page.getResources();
+            md.update((byte)'R');
+            update(md, resources == null ? null : resources.getCOSObject());
+
+            return OutputCache.toHex(md.digest());
+        }
+    }
+
+    /**
+     * Hash every page of a document.
+     */
+    private static String[] hashPages(PageIndex index) throws IOException {
+        Hasher hasher = new Hasher();
+        String[] hashes = new String[index.size()];
+        for (int pn = 0; pn < hashes.length; ++pn) {
+            hashes[pn] = hasher.hashOf(index.getPage(pn));
+        }
+
+        return hashes;
+    }
+
+
+
+    /************************************************************************
+     * Support code for index files.
+     */
+
+    private static String versionOf(File source) {
+        return source.length() + " " + source.lastModified();
+    }
+
+    private File indexOf(File source) throws IOException {
+        final byte[] path = source.getCanonicalPath().getBytes(StandardCharsets.UTF_8);
+
+        return new File(dir, OutputCache.toHex(OutputCache.createDigest().digest(path)) + SUFFIX);
+    }
+
+    /**
+     * Read an index file.
+     *
+     * @return the version line of the source followed by the page hashes,
+     * or an empty list if there is no readable index.
+     */
+    private static List<String> read(File index) {
+        List<String> lines = new ArrayList<>();
+        if (!index.isFile()) {
+            return lines;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+            if (!FORMAT.equals(reader.readLine())) {
+                return lines;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            Debug.warning(DD, "PageHashes unreadable index %s: %s", index, e.getMessage());
+            lines.clear();
+        }
+
+        return lines;
+    }
+
+    /**
+     * Write an index file, replacing the old one only once it is complete.
+     * Failure is logged, but is not an error.
+     */
+    private void write(File index, String version, String[] hashes) {
+        final File part = new File(index.getPath() + ".part");
+        try {
+            Files.createDirectories(dir.toPath());
+            try (BufferedWriter writer = Files.newBufferedWriter(part.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(FORMAT);
+                writer.newLine();
+                writer.write(version);
+                writer.newLine();
+                for (String hash : hashes) {
+                    writer.write(hash);
+                    writer.newLine();
+                }
+            }
+            Files.move(part.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            part.delete();
+            Debug.warning(DD, "PageHashes index not saved: %s", e.getMessage());
+        }
+    }
+
+    private static int countChanged(List<String> before, String[] after) {
+        int changed = 0;
+        for (int pn = 0; pn < after.length; ++pn) {
+            if (pn + 1 >= before.size() || !after[pn].equals(before.get(pn + 1))) {
+                ++changed;
+            }
+        }
+
+        return changed;
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    /**
+     * Get the content hash of every page of a source document, from its
+     * index file if the source is unchanged since it was last hashed,
+     * otherwise by hashing the pages and saving a new index.
+     *
+     * @param path of the source PDF.
+     * @param setting memory usage used if the source has to be loaded.
+     * @return the hash of each page, indexed by page number.
+     * @throws IOException if the source cannot be loaded.
+     */
+    public synchronized String[] get(String path, MemoryUsageSetting setting)
+            throws IOException {
+        final File source = new File(path);
+        final String version = versionOf(source);
+        final File index = indexOf(source);
+
+        final List<String> before = read(index);
+        if (!before.isEmpty() && version.equals(before.get(0))) {
+            return before.subList(1, before.size()).toArray(new String[0]);
+        }
+
+        final long start = System.nanoTime();
+        final String[] hashes;
+        try (DocumentCache.Handle handle = DocumentCache.acquire(path, setting)) {
+            hashes = hashPages(new PageIndex(handle.getDocument()));
+        }
+        write(index, version, hashes);
+
+        if (!before.isEmpty()) {
+            Debug.info(DD, "PageHashes %d of %d pages changed in %s",
+                countChanged(before, hashes), hashes.length, path);
+        }
+        Debug.trace(DD, "PageHashes hashed %d pages in %d ms", hashes.length,
+            (System.nanoTime() - start) / 1000000);
+
+        return hashes;
+    }
+
+    /**
+     * Combine the hashes of a range of pages into a single hash.
+     *
+     * @param hashes of the pages of a document.
+     * @param from index of the first page of the range.
+     * @param to index after the last page of the range.
+     * @return the hash of the range.
+     */
+    public static String combine(String[] hashes, int from, int to) {
+        MessageDigest md = OutputCache.createDigest();
+        for (int pn = from; pn < to; ++pn) {
+            md.update(hashes[pn].getBytes(StandardCharsets.UTF_8));
+        }
+
+        return (to - from) + ":" + OutputCache.toHex(md.digest());
+    }
+
+}
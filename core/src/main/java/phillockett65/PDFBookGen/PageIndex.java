@@ -0,0 +1,175 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageIndex is a class that captures the pages of a source document, and the
+ * size of each page's crop box, in arrays indexed by page number. In PDFBox 2
+ * PDDocument.getPage(index) walks the page tree from the root on every call,
+ * so the tree is walked once here, in document order, and every later lookup
+ * is a simple array access.
+ *
+ * A page that is no longer needed can be released, which drops it and its 
+ * page level objects from the document, so that they can be collected.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+public class PageIndex {
+
+    private final PDDocument doc;
+    private final PDPage[] pages;
+    private final float[] widths;
+    private final float[] heights;
+
+
+    /**
+     * Construct a PageIndex by walking the page tree of the given document.
+     *
+     * @param doc source document to index.
+     */
+    public PageIndex(PDDocument doc) {
+        this.doc = doc;
+        final int count = doc.getNumberOfPages();
+        pages = new PDPage[count];
+        widths = new float[count];
+        heights = new float[count];
+
+        int i = 0;
+        for (PDPage page : doc.getPages()) {
+            if (i >= count) {
+                break;
+            }
+
+            PDRectangle crop = page.getCropBox();
+            pages[i] = page;
+            widths[i] = crop.getWidth();
+            heights[i] = crop.getHeight();
+            ++i;
+        }
+    }
+
+    /**
+     * @return the indexed document.
+     */
+    public PDDocument getDocument() { return doc; }
+
+    /**
+     * @return the number of pages in the indexed document.
+     */
+    public int size() { return pages.length; }
+
+    /**
+     * @param pn page number (pages start from 0).
+     * @return the page.
+     */
+    public PDPage getPage(int pn) { return pages[pn]; }
+
+    /**
+     * @param pn page number (pages start from 0).
+     * @return the width of the page's crop box.
+     */
+    public float getWidth(int pn) { return widths[pn]; }
+
+    /**
+     * @param pn page number (pages start from 0).
+     * @return the height of the page's crop box.
+     */
+    public float getHeight(int pn) { return heights[pn]; }
+
+    /**
+     * Release a page that will not be used again. The page, its content 
+     * streams, its resources dictionary and its forms are dropped from the
+     * document, as they belong to this page alone in a generated booklet.
+     * Resources below the forms (fonts, images etc.) may be shared with 
+     * other pages, so they are kept.
+     *
+     * @param pn page number (pages start from 0).
+     * @throws IOException if an object cannot be dropped.
+     */
+    public void release(int pn) throws IOException {
+        final PDPage page = pages[pn];
+        if (page == null) {
+            return;
+        }
+        pages[pn] = null;
+
+        final COSDictionary dict = page.getCOSObject();
+        List<COSBase> items = new ArrayList<>();
+
+        COSBase base = dict.getDictionaryObject(COSName.PARENT);
+        if (base instanceof COSDictionary) {
+            base = ((COSDictionary)base).getDictionaryObject(COSName.KIDS);
+            if (base instanceof COSArray) {
+                for (COSBase kid : (COSArray)base) {
+                    if (kid instanceof COSObject && ((COSObject)kid).getObject() == dict) {
+                        items.add(kid);
+                        break;
+                    }
+                }
+            }
+        }
+
+        base = dict.getItem(COSName.CONTENTS);
+        items.add(base);
+        base = dict.getDictionaryObject(COSName.CONTENTS);
+        if (base instanceof COSArray) {
+            for (COSBase item : (COSArray)base) {
+                items.add(item);
+            }
+        }
+
+        items.add(dict.getItem(COSName.RESOURCES));
+        base = dict.getDictionaryObject(COSName.RESOURCES);
+        if (base instanceof COSDictionary) {
+            base = ((COSDictionary)base).getDictionaryObject(COSName.XOBJECT);
+            if (base instanceof COSDictionary) {
+                COSDictionary xobjects = (COSDictionary)base;
+                for (COSName name : xobjects.keySet()) {
+                    COSBase item = xobjects.getDictionaryObject(name);
+                    if (item instanceof COSStream &&
+                            COSName.FORM.equals(((COSStream)item).getCOSName(COSName.SUBTYPE))) {
+                        items.add(xobjects.getItem(name));
+                    }
+                }
+            }
+        }
+
+        // Only indirect objects are held by the document.
+        for (COSBase item : items) {
+            if (item instanceof COSObject) {
+                ((COSObject)item).setObject(null);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ResourceDedup is a class that collapses identical resources (fonts, images,
+ * forms etc.) in the generated document into a single shared object. The
+ * LayerUtility clone cache only recognises objects that are the same object
+ * in the source document, whereas many PDFs (particularly those assembled from
+ * separately exported chapters) embed the same font or logo many times over.
+ * Each resource is identified by a digest of its content, so the first copy
+ * seen becomes the canonical one and later copies are replaced by it.
+ *
+ * Digests are cached by object identity, so an object shared through the
+ * clone cache is only read once. Nothing is kept alive just for that, as the
+ * caches hold their objects weakly (the COS objects that can be cached do 
+ * not override equals()). A resource seen once, as most images are, is also
+ * held weakly, and only becomes the canonical copy, which is kept for the 
+ * rest of the job, once it is seen again. So memory grows with the shared 
+ * resources rather than with every resource of the booklet.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDResources;
+
+public class ResourceDedup {
+
+    // Resource categories that may hold shareable objects.
+    private static final COSName[] CATEGORIES = {
+        COSName.XOBJECT, COSName.FONT, COSName.EXT_G_STATE,
+        COSName.COLORSPACE, COSName.PATTERN, COSName.SHADING
+    };
+
+    private final Map<String, COSBase> canonical = new HashMap<>();   // Seen twice.
+    private final Map<String, WeakReference<COSBase>> once = new HashMap<>();
+    private int onceLimit = 1024;       // Size at which "once" is pruned.
+    private final Map<COSBase, String> digests = new WeakHashMap<>();
+    private final Set<COSBase> inProgress =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<COSBase> processed =
+            Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final MessageDigest md;
+    private int replaced = 0;
+
+
+    /**
+     * Constructor.
+     */
+    public ResourceDedup() {
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of resource references replaced by a shared copy.
+     */
+    public int getReplacedCount() { return replaced; }
+
+
+    /**
+     * Replace any resource in the given resources dictionary that is
+     * identical to a previously seen resource with the previously seen one.
+     * Nested form XObject resources are processed first.
+     *
+     * @param resources to de-duplicate, may be null.
+     * @throws IOException if a stream cannot be read.
+     */
+    public void dedup(PDResources resources) throws IOException {
+        if (resources == null) {
+            return;
+        }
+
+        dedup(resources.getCOSObject());
+    }
+
+    private void dedup(COSDictionary resources) throws IOException {
+        if (!processed.add(resources)) {
+            return;
+        }
+
+        for (COSName category : CATEGORIES) {
+            COSBase base = resources.getDictionaryObject(category);
+            if (!(base instanceof COSDictionary)) {
+                continue;
+            }
+
+            COSDictionary dict = (COSDictionary)base;
+            List<COSName> keys = new ArrayList<>(dict.keySet());
+            for (COSName key : keys) {
+                COSBase item = dict.getDictionaryObject(key);
+                if (!(item instanceof COSDictionary)) {
+                    continue;
+                }
+
+                // Forms carry their own resources, tidy those up first.
+                COSBase nested = ((COSDictionary)item).getDictionaryObject(COSName.RESOURCES);
+                if (nested instanceof COSDictionary) {
+                    dedup((COSDictionary)nested);
+                }
+
+                final COSBase first = share(digest(item), item);
+                if (first != item) {
+                    dict.setItem(key, first);
+                    ++replaced;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the copy of a resource to use. The first copy seen is used if it
+     * is still around, otherwise the given one.
+     *
+     * @param digest of the resource.
+     * @param item the resource.
+     * @return the canonical copy of the resource.
+     */
+    private COSBase share(String digest, COSBase item) {
+        COSBase shared = canonical.get(digest);
+        if (shared != null) {
+            return shared;
+        }
+
+        final WeakReference<COSBase> ref = once.remove(digest);
+        if (ref == null) {
+            once.put(digest, new WeakReference<>(item));
+            if (once.size() > onceLimit) {
+                prune();
+            }
+
+            return item;
+        }
+
+        shared = ref.get();
+        if (shared == null) {
+            shared = item;
+        }
+        canonical.put(digest, shared);
+
+        return shared;
+    }
+
+    /**
+     * Forget the resources seen once that have since been collected.
+     */
+    private void prune() {
+        once.values().removeIf(ref -> ref.get() == null);
+        onceLimit = Math.max(1024, 2 * once.size());
+    }
+
+
+    /************************************************************************
+     * Support code for content digests.
+     */
+
+    /**
+     * Calculate a digest of the given object including everything it refers
+     * to. Structured objects are cached by identity.
+     *
+     * @param base object to digest.
+     * @return the Base64 encoded digest.
+     * @throws IOException if a stream cannot be read.
+     */
+    private String digest(COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject)base).getObject();
+        }
+
+        if (base == null || base instanceof COSNull) {
+            return "n";
+        }
+        if (base instanceof COSName) {
+            return "/" + ((COSName)base).getName();
+        }
+        if (base instanceof COSInteger) {
+            return "i" + ((COSInteger)base).longValue();
+        }
+        if (base instanceof COSFloat) {
+            return "f" + ((COSFloat)base).floatValue();
+        }
+        if (base instanceof COSBoolean) {
+            return "b" + ((COSBoolean)base).getValue();
+        }
+        if (base instanceof COSString) {
+            return "s" + Base64.getEncoder().encodeToString(((COSString)base).getBytes());
+        }
+
+        String known = digests.get(base);
+        if (known != null) {
+            return known;
+        }
+
+        // A reference back to an object being digested makes it unique.
+        if (!inProgress.add(base)) {
+            return "c" + System.identityHashCode(base);
+        }
+
+        StringBuilder text = new StringBuilder();
+        if (base instanceof COSArray) {
+            text.append('[');
+            for (COSBase item : (COSArray)base) {
+                text.append(digest(item)).append(' ');
+            }
+        } else if (base instanceof COSDictionary) {
+            COSDictionary dict = (COSDictionary)base;
+            List<COSName> keys = new ArrayList<>(dict.keySet());
+            Collections.sort(keys);
+            text.append(base instanceof COSStream ? '{' : '<');
+            for (COSName key : keys) {
+                if (COSName.LENGTH.equals(key)) {
+                    continue;
+                }
+                text.append(key.getName()).append(' ');
+                text.append(digest(dict.getItem(key))).append(' ');
+            }
+        } else {
+            text.append(base.getClass().getSimpleName()).append(System.identityHashCode(base));
+        }
+
+        md.reset();
+        md.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        if (base instanceof COSStream) {
+            try (InputStream in = ((COSStream)base).createRawInputStream()) {
+                byte[] buffer = new byte[8192];
+                for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                }
+            }
+        }
+        final String digest = Base64.getEncoder().encodeToString(md.digest());
+
+        inProgress.remove(base);
+        digests.put(base, digest);
+
+        return digest;
+    }
+
+}
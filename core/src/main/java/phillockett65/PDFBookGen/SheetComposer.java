@@ -0,0 +1,366 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SheetComposer is the class that writes one side of a sheet of the generated
+ * document. The two source pages are conceptually placed side by side on a
+ * landscape frame, which is then rotated and scaled to fit the portrait
+ * output page. Rather than building the landscape frame as a page, both
+ * transforms are combined into a single matrix for each source page, so each
+ * side is written directly to its final portrait page in a single pass.
+ *
+ * By default the forms are drawn as plain XObjects with a single content
+ * stream per side. Optionally each form can be added as an Optional Content
+ * Group (layer), as LayerUtility does, but that registers 2 OCGs per side in
+ * the document catalog which large booklets can ill afford.
+ *
+ * The resources of each imported form are shared with those already in the
+ * target document by a ResourceDedup. This can be given by the caller, so 
+ * that a single one is used for the whole job, or turned off when the caller
+ * shares the resources itself.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+
+import org.apache.pdfbox.multipdf.LayerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.util.Matrix;
+
+import phillockett65.PDFBookGen.Monitor.JobStats;
+
+public class SheetComposer {
+
+    private final PDDocument sourceDoc;     // The source PDF document.
+    private final PageIndex index;          // The pages of "sourceDoc".
+    private final PDDocument targetDoc;     // The generated PDF document.
+    private final PDRectangle pageSize;     // Portrait output page size.
+
+    private final LayerUtility layer;       // Page importer for "targetDoc".
+    private ResourceDedup dedup;            // Shared resources, if any.
+    private boolean layers = false;         // Add each page as an OCG?
+    private int sideOffset = 0;             // Sides composed elsewhere.
+    private JobStats stats = null;          // Phase timings, if measured.
+
+
+    /**
+     * Constructor.
+     *
+     * @param source document to take pages from.
+     * @param pages index of the source document.
+     * @param target document to add the sheet sides to.
+     * @param size of standard portrait page defined by PDRectangle.
+     */
+    public SheetComposer(PDDocument source, PageIndex pages, PDDocument target,
+            PDRectangle size) {
+        sourceDoc = source;
+        index = pages;
+        targetDoc = target;
+        pageSize = size;
+
+        // Use a single LayerUtility for the whole document so that its clone
+        // cache shares resources used by many pages.
+        layer = new LayerUtility(targetDoc);
+        dedup = new ResourceDedup();
+    }
+
+    /**
+     * Indicate whether each source page should be added as an Optional 
+     * Content Group (layer) instead of as a plain XObject.
+     *
+     * @param state true to create a layer per source page, false otherwise.
+     */
+    public void setUseLayers(boolean state) { layers = state; }
+
+    /**
+     * Set the number of sides that precede those of the target document in
+     * the finished booklet, so that layer names stay unique when the target
+     * is only a part of the booklet.
+     *
+     * @param offset count of preceding sides.
+     */
+    public void setSideOffset(int offset) { sideOffset = offset; }
+
+    /**
+     * Set the measurements to add the import and compose times to.
+     *
+     * @param job measurements of the current job, or null.
+     */
+    public void setStats(JobStats job) { stats = job; }
+
+    /**
+     * Set the ResourceDedup used to share the resources of imported forms,
+     * instead of one for this composer alone.
+     *
+     * @param shared to share resources with, or null to not share them.
+     */
+    public void setDedup(ResourceDedup shared) { dedup = shared; }
+
+    /**
+     * @return the number of resource references replaced by a shared copy.
+     */
+    public int getSharedCount() { return dedup == null ? 0 : dedup.getReplacedCount(); }
+
+
+    /**
+     * Calculate the transform that rotates and scales a landscape frame to
+     * fit, centred, on a portrait page.
+     *
+     * @param sheet portrait output page size.
+     * @param iw width of the landscape frame.
+     * @param ih height of the landscape frame.
+     * @param flip flag to indicate if the frame should be rotated clockwise.
+     * @return the transform from frame space to sheet space.
+     */
+    public static AffineTransform getSheetTransform(PDRectangle sheet,
+            float iw, float ih, boolean flip) {
+
+        final double degrees = Math.toRadians(flip ? 270 : 90);
+
+        final float ow = sheet.getWidth();
+        final float oh = sheet.getHeight();
+
+        final float sw = ow / ih;
+        final float sh = oh / iw;
+
+        float scale;
+        float dx = 0.0f;
+        float dy = 0.0f;
+        if (sw < sh) {
+            scale = sw;
+            // Centre the pages on the output sheet.
+            dx = (oh - (iw * scale)) / (2 * scale);
+        }
+        else {
+            scale = sh;
+            // Centre the pages on the output sheet.
+            dy = (ow - (ih * scale)) / (2 * scale);
+        }
+
+        float tx = iw / 2;
+        float ty = ih / 2;
+
+        AffineTransform at = AffineTransform.getTranslateInstance(tx, ty);
+        at.rotate(degrees);
+        at.scale(scale, scale);
+
+        if (flip) {
+            ty = tx / scale;
+            tx -= (ih - oh) / (2 * scale);
+            ty -= dy;
+        }
+        else {
+            tx = ty / scale;
+            ty -= (iw - ow) / (2 * scale);
+            tx -= dx;
+        }
+
+        at.translate(-tx, -ty);
+
+        return at;
+    }
+
+    /**
+     * Calculate the transforms that place two source pages side by side,
+     * with the shorter vertically centred, on a portrait page.
+     *
+     * @param sheet portrait output page size.
+     * @param lw width of the left page.
+     * @param lh height of the left page.
+     * @param rw width of the right page.
+     * @param rh height of the right page.
+     * @param flip flag to indicate if the pages should be rotated clockwise.
+     * @return the transforms from left and right page space to sheet space.
+     */
+    public static AffineTransform[] getSideTransforms(PDRectangle sheet,
+            float lw, float lh, float rw, float rh, boolean flip) {
+
+        // Vertically centre the shorter of the two pages.
+        float h = lh;
+        float lty = 0.0f;
+        float rty = 0.0f;
+
+        if (rh > lh) {
+            h = rh;
+            lty = (rh - lh) / 2;
+        }
+        else {
+            rty = (lh - rh) / 2;
+        }
+
+        final AffineTransform frame = getSheetTransform(sheet, lw + rw, h, flip);
+
+        AffineTransform lAf = new AffineTransform(frame);
+        lAf.translate(0.0, lty);
+        AffineTransform rAf = new AffineTransform(frame);
+        rAf.translate(lw, rty);
+
+        return new AffineTransform[] { lAf, rAf };
+    }
+
+
+    /**
+     * Add one side of a sheet to the target document, with two source pages
+     * scaled and rotated to fit on a portrait 'pageSize' page. A missing page
+     * is left blank and takes the size of the other page.
+     *
+     * @param lpn page number in sourceDoc for the left of the frame, or -1.
+     * @param rpn page number in sourceDoc for the right of the frame, or -1.
+     * @param flip flag to indicate if the images should be rotated clockwise.
+     * @return the added page, or null if both pages are missing.
+     * @throws IOException if a source page cannot be imported.
+     */
+    public PDPage addSide(int lpn, int rpn, boolean flip) throws IOException {
+        final boolean lpa = lpn >= 0;
+        final boolean rpa = rpn >= 0;
+        if (!lpa && !rpa) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+
+        final int lFrame = lpa ? lpn : rpn;
+        final int rFrame = rpa ? rpn : lpn;
+
+        final AffineTransform[] afs = getSideTransforms(pageSize,
+            index.getWidth(lFrame), index.getHeight(lFrame),
+            index.getWidth(rFrame), index.getHeight(rFrame), flip);
+
+        return compose(lpn, rpn, afs[0], afs[1], start);
+    }
+
+    /**
+     * Add one side of a sheet to the target document, as given by a plan 
+     * placed on 'pageSize' paper.
+     *
+     * @param plan placed plan of the booklet.
+     * @param sheet index of the sheet in the plan.
+     * @param side ImpositionPlan.FRONT or ImpositionPlan.BACK.
+     * @return the added page, or null if both pages are blank.
+     * @throws IOException if a source page cannot be imported.
+     */
+    public PDPage addSide(ImpositionPlan plan, int sheet, int side)
+            throws IOException {
+        final int lpn = plan.getPage(sheet, side, ImpositionPlan.LEFT);
+        final int rpn = plan.getPage(sheet, side, ImpositionPlan.RIGHT);
+        if (lpn < 0 && rpn < 0) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+
+        return compose(lpn, rpn,
+            plan.getTransform(sheet, side, ImpositionPlan.LEFT),
+            plan.getTransform(sheet, side, ImpositionPlan.RIGHT), start);
+    }
+
+    /**
+     * Add a page to the target document with two source pages drawn on it.
+     *
+     * @param lpn page number in sourceDoc for the left page, or -1.
+     * @param rpn page number in sourceDoc for the right page, or -1.
+     * @param lAf transform of the left page.
+     * @param rAf transform of the right page.
+     * @param start time the side was started, for the compose time.
+     * @return the added page.
+     */
+    private PDPage compose(int lpn, int rpn, AffineTransform lAf,
+            AffineTransform rAf, long start) throws IOException {
+        final boolean lpa = lpn >= 0;
+        final boolean rpa = rpn >= 0;
+        long imported = 0;
+
+        final int idx = sideOffset + targetDoc.getNumberOfPages();
+
+        PDPage page = new PDPage(pageSize);
+        targetDoc.addPage(page);
+
+        // Source PDF pages has to be imported as form XObjects to be able to
+        // insert them at a specific point in the output page.
+        final long importStart = System.nanoTime();
+        PDFormXObject lForm = lpa ? importPageAsForm(lpn) : null;
+        PDFormXObject rForm = rpa ? importPageAsForm(rpn) : null;
+        if (stats != null) {
+            imported = stats.addTime(JobStats.IMPORT, importStart);
+        }
+
+        if (layers) {
+            if (lpa) {
+                layer.appendFormAsLayer(page, lForm, lAf, "left" + idx);
+            }
+            if (rpa) {
+                layer.appendFormAsLayer(page, rForm, rAf, "right" + idx);
+            }
+        } else {
+            try (PDPageContentStream stream = new PDPageContentStream(targetDoc, page)) {
+                if (lpa) {
+                    drawForm(stream, lForm, lAf);
+                }
+                if (rpa) {
+                    drawForm(stream, rForm, rAf);
+                }
+            }
+        }
+
+        if (stats != null) {
+            // Everything but the import time.
+            stats.addTime(JobStats.COMPOSE, start + imported);
+        }
+
+        return page;
+    }
+
+    /**
+     * Draw a form as a plain XObject with the given transform.
+     *
+     * @param stream of the page to draw on.
+     * @param form to draw.
+     * @param af transform from form space to page space.
+     */
+    private static void drawForm(PDPageContentStream stream, PDFormXObject form,
+            AffineTransform af) throws IOException {
+        stream.saveGraphicsState();
+        stream.transform(new Matrix(af));
+        stream.drawForm(form);
+        stream.restoreGraphicsState();
+    }
+
+    /**
+     * Import a page of the source document as a form XObject of the target
+     * document, sharing any resources already present in the target.
+     *
+     * @param pn page number in sourceDoc (pages start from 0).
+     * @return the imported form.
+     */
+    private PDFormXObject importPageAsForm(int pn) throws IOException {
+        PDFormXObject form = layer.importPageAsForm(sourceDoc, index.getPage(pn));
+        if (dedup != null) {
+            dedup.dedup(form.getResources());
+        }
+
+        return form;
+    }
+
+}
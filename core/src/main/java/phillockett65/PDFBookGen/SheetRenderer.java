@@ -0,0 +1,136 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SheetRenderer is the class that renders single sides of the sheets of a
+ * booklet as images, for previews, without generating the booklet. Each side
+ * is imposed, following the ImpositionPlan, into a scratch document of its
+ * own, which is then rendered with PDFRenderer, so the preview shows exactly
+ * what would be printed.
+ *
+ * A SheetRenderer holds its own copy of the source, as PDDocument is not
+ * thread safe, so each rendering thread needs a SheetRenderer of its own.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+public class SheetRenderer implements Closeable {
+
+    private final PDDocument source;    // Private copy of the source.
+    private final PageIndex index;      // The pages of "source".
+
+
+    /************************************************************************
+     * Support code for the Initialization of the SheetRenderer.
+     */
+
+    /**
+     * Constructor, loads a copy of the source document.
+     *
+     * @param path of the source PDF.
+     * @param setting memory usage for the source.
+     * @throws IOException if the source cannot be loaded.
+     */
+    public SheetRenderer(String path, MemoryUsageSetting setting)
+            throws IOException {
+        source = PDDocument.load(new File(path), setting);
+        index = new PageIndex(source);
+    }
+
+    /**
+     * @return the number of pages in the source.
+     */
+    public int getPageCount() { return index.size(); }
+
+    /**
+     * Release the copy of the source.
+     */
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    /**
+     * Create a blank (white) image of the given size.
+     */
+    private static BufferedImage createBlank(PDRectangle paper, float scale) {
+        final int width = Math.max(1, Math.round(paper.getWidth() * scale));
+        final int height = Math.max(1, Math.round(paper.getHeight() * scale));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        return image;
+    }
+
+    /**
+     * Render one side of a sheet.
+     *
+     * @param layout plan of the booklet, placed here on the paper.
+     * @param paper size of portrait paper.
+     * @param sheet index of the sheet in the plan.
+     * @param side ImpositionPlan.FRONT or ImpositionPlan.BACK.
+     * @param scale pixels per point.
+     * @return the image of the side, blank if the side has no pages.
+     * @throws IOException if the plan does not fit the source, or the side
+     * cannot be imposed or rendered.
+     */
+    public BufferedImage render(ImpositionPlan layout, PDRectangle paper,
+            int sheet, int side, float scale) throws IOException {
+        if (layout.getLastPage() > index.size()) {
+            throw new IOException("Plan needs " + layout.getLastPage() +
+                " pages, source has " + index.size());
+        }
+
+        final ImpositionPlan placed = layout.place(paper, index);
+        try (PDDocument doc = new PDDocument(MemoryUsageSetting.setupMainMemoryOnly())) {
+            SheetComposer composer = new SheetComposer(source, index, doc, paper);
+            PDPage page = composer.addSide(placed, sheet, side);
+            if (page == null) {
+                return createBlank(paper, scale);
+            }
+
+            return new PDFRenderer(doc).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SignatureCache is a class that remembers the signatures written by the
+ * previous run of a PDFBook, so that the next run can reuse any signature
+ * whose source pages and settings are unchanged, imposing only those that
+ * differ. This makes regenerating after nudging the first or last page
+ * cheap, as most signatures usually remain the same.
+ *
+ * The sheets are not held in memory. Instead, the previous output is kept
+ * (as a hard link where possible, otherwise a copy) and indexed by signature
+ * key, and the sheets of a reused signature are written straight from it.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import phillockett65.Debug.Debug;
+
+public class SignatureCache {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private final File store;       // The previous output.
+    private long storeSize = 0;     // To detect changes to the store.
+    private long storeModified = 0;
+    private Map<String, Entry> entries = new HashMap<>();
+    private Map<String, Entry> next = null;
+
+
+    /**
+     * Where the sheets of a signature are in the previous output.
+     */
+    public static class Entry {
+        private final int first;    // Index of the first sheet side.
+        private final int count;    // Number of sheet sides.
+
+        private Entry(int first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        public int getFirst() { return first; }
+        public int getCount() { return count; }
+    }
+
+
+    /************************************************************************
+     * Support code for the Initialization of the SignatureCache.
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param directory to keep the previous output in, blank for the system 
+     * temp directory.
+     * @throws IOException if the store file cannot be created.
+     */
+    public SignatureCache(String directory) throws IOException {
+        final File dir = directory.isBlank() ? null : new File(directory);
+        store = File.createTempFile("PDFBookGen-previous", ".pdf", dir);
+        store.deleteOnExit();
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    /**
+     * @return the previous output, or null if there is none.
+     */
+    public synchronized File getPrevious() {
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        // A hard link shares any change made to the output in place.
+        if (store.length() != storeSize || store.lastModified() != storeModified) {
+            Debug.warning(DD, "SignatureCache previous output changed, not reused");
+            entries = new HashMap<>();
+
+            return null;
+        }
+
+        return store;
+    }
+
+    /**
+     * Find a signature in the previous output.
+     *
+     * @param key identifying the source pages and settings of a signature.
+     * @return where the sheets are in the previous output, or null if the
+     * signature was not generated by the previous run.
+     */
+    public synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Start recording the signatures of a new run.
+     */
+    public synchronized void begin() {
+        next = new HashMap<>();
+    }
+
+    /**
+     * Record a signature of the new run.
+     *
+     * @param key identifying the source pages and settings of a signature.
+     * @param first index in the output of the first sheet side.
+     * @param count number of sheet sides.
+     */
+    public synchronized void put(String key, int first, int count) {
+        if (next != null) {
+            next.put(key, new Entry(first, count));
+        }
+    }
+
+    /**
+     * Complete a new run, which replaces the previous one. Must only be
+     * called once the previous output is no longer being read.
+     *
+     * @param output file path of the generated PDF, or null if the run did
+     * not complete, in which case the previous run is kept.
+     */
+    public synchronized void end(String output) {
+        final Map<String, Entry> recorded = next;
+        next = null;
+        if (output == null || recorded == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(store.toPath());
+            try {
+                Files.createLink(store.toPath(), new File(output).toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(new File(output).toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            entries = recorded;
+            storeSize = store.length();
+            storeModified = store.lastModified();
+        } catch (IOException e) {
+            entries = new HashMap<>();
+            Debug.warning(DD, "SignatureCache not updated: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Forget the previous run.
+     */
+    public synchronized void clear() {
+        entries = new HashMap<>();
+        store.delete();
+    }
+
+}
@@ -0,0 +1,708 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * StreamingWriter is a class that writes the generated document to disc a
+ * page at a time, instead of saving the whole document at the end. Each page
+ * is serialised, along with every object it refers to that has not already
+ * been written, as soon as it is finished. Once written, the page level
+ * objects (the page, its content stream, its resource dictionaries and the
+ * form XObjects of the imported pages) are released, so memory is bounded by
+ * the pages in progress rather than by the size of the booklet. Resources
+ * below the forms (fonts, images etc.) are remembered by identity, so shared
+ * resources are only written once. They are remembered weakly, so one that
+ * is no longer used elsewhere, and so cannot be written again, is not kept.
+ *
+ * The page tree is written as a single flat /Pages node, followed by the
+ * catalog, the cross reference table and the trailer, by finish(). The
+ * document is written to a ".part" file which replaces the output file only
+ * when finished, so an abandoned document never clobbers an existing file.
+ *
+ * When compressing (PDF 1.5 and later), every object other than a stream is
+ * packed into a compressed object stream instead, in batches so that memory
+ * use is still bounded, and the cross reference table and trailer are
+ * replaced by a compressed cross reference stream. This greatly reduces the
+ * size of the many small page, form and resource dictionaries of a booklet.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSStandardOutputStream;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import phillockett65.Debug.Debug;
+
+public class StreamingWriter implements Closeable {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private static final long CATALOG = 1;  // Reserved object numbers.
+    private static final long PAGES = 2;
+
+    private static final int PACK_OBJECTS = 100;        // Object stream limits.
+    private static final int PACK_BYTES = 64 * 1024;
+
+    private final File target;              // The finished document.
+    private final File part;                // The document being written.
+    private final COSStandardOutputStream file;
+    private COSStandardOutputStream out;    // Where objects are serialised.
+
+    // Only dictionaries and streams are numbered, which compare by identity.
+    private final Map<COSBase, Long> numbers = new WeakHashMap<>();
+    private final Deque<COSBase> pending = new ArrayDeque<>();
+    private long[] offsets = new long[1024];    // Indexed by object number.
+    private long[] containers = new long[1024]; // Object stream, 0 if none.
+    private long nextNumber = PAGES + 1;
+
+    private final boolean compress;         // Use object and xref streams?
+    private ByteArrayOutputStream packed;   // Objects of the object stream.
+    private long[] packedNumbers = new long[PACK_OBJECTS];
+    private int[] packedOffsets = new int[PACK_OBJECTS];
+    private int packedCount = 0;
+
+    private long[] kids = new long[256];        // Page object numbers.
+    private int pageCount = 0;
+
+    private boolean finished = false;
+    private boolean closed = false;
+
+
+    /************************************************************************
+     * Support code for the Initialization of the StreamingWriter.
+     */
+
+    /**
+     * Constructor. Creates the ".part" file and writes the PDF header.
+     *
+     * @param path of the output PDF document.
+     * @param version of PDF to declare in the header.
+     * @throws IOException if the file cannot be created.
+     */
+    public StreamingWriter(String path, float version) throws IOException {
+        this(path, version, false);
+    }
+
+    /**
+     * Constructor. Creates the ".part" file and writes the PDF header.
+     *
+     * @param path of the output PDF document.
+     * @param version of PDF to declare in the header, raised to 1.5 if
+     * compressing.
+     * @param compress true to pack objects into compressed object streams 
+     * and use a cross reference stream.
+     * @throws IOException if the file cannot be created.
+     */
+    public StreamingWriter(String path, float version, boolean compress)
+            throws IOException {
+        target = new File(path);
+        part = new File(path + ".part");
+        file = new COSStandardOutputStream(
+                new BufferedOutputStream(new FileOutputStream(part), 64 * 1024));
+        out = file;
+        this.compress = compress;
+
+        if (compress) {
+            version = Math.max(version, 1.5f);
+            packed = new ByteArrayOutputStream(PACK_BYTES + 8192);
+        }
+
+        write("%PDF-" + version);
+        out.writeEOL();
+        // Binary comment so that transfer programs treat the file as binary.
+        out.write(COSWriter.COMMENT);
+        out.write(new byte[] { (byte)0xF6, (byte)0xE4, (byte)0xFC, (byte)0xDF });
+        out.writeEOL();
+    }
+
+    /**
+     * @return the number of pages written.
+     */
+    public int getPageCount() { return pageCount; }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    public long getPosition() { return file.getPos(); }
+
+
+    /************************************************************************
+     * Support code for writing pages.
+     */
+
+    /**
+     * Write a finished page, and any objects it refers to that have not
+     * already been written, then release the page level objects.
+     *
+     * @param page to write.
+     * @throws IOException if the page cannot be written.
+     */
+    public void writePage(PDPage page) throws IOException {
+        final COSDictionary dict = page.getCOSObject();
+        final long num = numberOf(dict);
+
+        if (pageCount == kids.length) {
+            kids = Arrays.copyOf(kids, pageCount * 2);
+        }
+        kids[pageCount++] = num;
+
+        pending.remove(dict);
+        writeObject(num, dict, COSName.PARENT, PAGES);
+        drain();
+
+        release(page);
+    }
+
+    /**
+     * Forget and close the objects that belong only to the given page, as it
+     * is assumed they are not shared with any later page. Should one be
+     * shared after all it is simply written again.
+     */
+    private void release(PDPage page) {
+        final COSDictionary dict = page.getCOSObject();
+        numbers.remove(dict);
+
+        COSBase contents = dict.getDictionaryObject(COSName.CONTENTS);
+        if (contents instanceof COSArray) {
+            for (COSBase item : (COSArray)contents) {
+                forget(resolve(item));
+            }
+        } else {
+            forget(contents);
+        }
+
+        COSBase base = dict.getDictionaryObject(COSName.RESOURCES);
+        if (!(base instanceof COSDictionary)) {
+            return;
+        }
+
+        COSDictionary resources = (COSDictionary)base;
+        numbers.remove(resources);
+        for (COSName category : resources.keySet()) {
+            COSBase kind = resources.getDictionaryObject(category);
+            if (kind instanceof COSDictionary) {
+                numbers.remove(kind);
+            }
+        }
+
+        base = resources.getDictionaryObject(COSName.XOBJECT);
+        if (base instanceof COSDictionary) {
+            COSDictionary xobjects = (COSDictionary)base;
+            for (COSName name : xobjects.keySet()) {
+                COSBase item = xobjects.getDictionaryObject(name);
+                if (item instanceof COSStream &&
+                        COSName.FORM.equals(((COSStream)item).getCOSName(COSName.SUBTYPE))) {
+                    forget(item);
+                }
+            }
+        }
+    }
+
+    private void forget(COSBase base) {
+        numbers.remove(base);
+        if (base instanceof COSStream) {
+            try {
+                ((COSStream)base).close();
+            } catch (IOException e) {
+                Debug.major(DD, e.getMessage());
+            }
+        }
+    }
+
+
+    /************************************************************************
+     * Support code for finishing the document.
+     */
+
+    /**
+     * Write the page tree, the catalog (taking any entries other than /Pages
+     * from the given document), the cross reference table and the trailer,
+     * then replace the output file with the written document.
+     *
+     * @param doc whose catalog entries, such as /OCProperties, are written.
+     * @throws IOException if the document cannot be written.
+     */
+    public void finish(PDDocument doc) throws IOException {
+        // Flat page tree.
+        startObject(PAGES, compress);
+        write("<< /Type /Pages /Count " + pageCount + " /Kids [");
+        for (int i = 0; i < pageCount; ++i) {
+            write(" " + kids[i] + " 0 R");
+        }
+        write(" ] >>");
+        endObject();
+
+        final COSDictionary catalog = doc.getDocumentCatalog().getCOSObject();
+        writeObject(CATALOG, catalog, COSName.PAGES, PAGES);
+        drain();
+
+        final long startxref;
+        if (compress) {
+            writeObjectStream();
+            startxref = file.getPos();
+            writeXrefStream(startxref);
+        } else {
+            startxref = file.getPos();
+            writeXref();
+
+            write("trailer");
+            file.writeEOL();
+            write("<< /Size " + nextNumber + " /Root " + CATALOG + " 0 R /ID [");
+            final String id = createId(startxref);
+            write(id + " " + id + "] >>");
+            file.writeEOL();
+        }
+
+        write("startxref");
+        file.writeEOL();
+        write(String.valueOf(startxref));
+        file.writeEOL();
+        file.write(COSWriter.EOF);
+        file.writeEOL();
+
+        file.close();
+        closed = true;
+
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        finished = true;
+
+        Debug.trace(DD, "StreamingWriter wrote %d objects, %d pages, %d bytes to %s",
+            nextNumber - 1, pageCount, startxref, target);
+    }
+
+    private void writeXref() throws IOException {
+        write("xref");
+        file.writeEOL();
+        write("0 " + nextNumber);
+        file.writeEOL();
+        write("0000000000 65535 f");
+        file.writeCRLF();
+        for (long num = 1; num < nextNumber; ++num) {
+            write(String.format("%010d 00000 n", offsets[(int)num]));
+            file.writeCRLF();
+        }
+    }
+
+    /**
+     * Write the cross reference stream, which also serves as the trailer.
+     * Each entry is a type (0 free, 1 in the file, 2 in an object stream),
+     * then the file offset or the object stream number, then the generation
+     * or the index in the object stream.
+     */
+    private void writeXrefStream(long startxref) throws IOException {
+        final long num = nextNumber++;
+        reserve(num);
+        offsets[(int)num] = startxref;
+
+        final int w2 = byteCount(Math.max(startxref, num));
+        final int w3 = 2;
+
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(entries)) {
+            byte[] entry = new byte[1 + w2 + w3];
+            for (long n = 0; n < nextNumber; ++n) {
+                if (n == 0) {
+                    setEntry(entry, 0, 0, 0xFFFF, w2, w3);
+                } else if (containers[(int)n] != 0) {
+                    setEntry(entry, 2, containers[(int)n], offsets[(int)n], w2, w3);
+                } else {
+                    setEntry(entry, 1, offsets[(int)n], 0, w2, w3);
+                }
+                deflater.write(entry);
+            }
+        }
+
+        final String id = createId(startxref);
+        write(num + " 0 obj");
+        file.writeEOL();
+        write("<< /Type /XRef /Size " + nextNumber + " /W [1 " + w2 + " " + w3 + "]" +
+            " /Root " + CATALOG + " 0 R /ID [" + id + " " + id + "]" +
+            " /Filter /FlateDecode /Length " + entries.size() + " >>");
+        writeStreamData(entries);
+        endObject();
+    }
+
+    private static int byteCount(long value) {
+        int count = 1;
+        while ((value >>>= 8) != 0) {
+            ++count;
+        }
+
+        return count;
+    }
+
+    private static void setEntry(byte[] entry, int type, long field2,
+            long field3, int w2, int w3) {
+        entry[0] = (byte)type;
+        for (int i = w2; i > 0; --i, field2 >>>= 8) {
+            entry[i] = (byte)field2;
+        }
+        for (int i = w2 + w3; i > w2; --i, field3 >>>= 8) {
+            entry[i] = (byte)field3;
+        }
+    }
+
+    /**
+     * Generate a file identifier from the target path, time and size.
+     */
+    private String createId(long size) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(target.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            md.update(Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII));
+            md.update(Long.toString(size).getBytes(StandardCharsets.US_ASCII));
+
+            StringBuilder hex = new StringBuilder("<");
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02X", b));
+            }
+
+            return hex.append('>').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Close the output. If finish() has not been called, the document is
+     * incomplete so the ".part" file is deleted and the output file is left
+     * untouched.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Debug.major(DD, e.getMessage());
+            }
+            closed = true;
+        }
+
+        if (!finished && part.exists() && !part.delete()) {
+            Debug.major(DD, "Unable to delete %s", part);
+        }
+    }
+
+
+    /************************************************************************
+     * Support code for serialising objects.
+     */
+
+    private static COSBase resolve(COSBase base) {
+        return (base instanceof COSObject) ? ((COSObject)base).getObject() : base;
+    }
+
+    /**
+     * Get the object number for an indirect object, allocating a number and
+     * queuing the object for writing if it has not been seen before.
+     */
+    private long numberOf(COSBase base) {
+        Long num = numbers.get(base);
+        if (num != null) {
+            return num;
+        }
+
+        numbers.put(base, nextNumber);
+        pending.add(base);
+
+        return nextNumber++;
+    }
+
+    /**
+     * Write every queued object, including any objects they queue.
+     */
+    private void drain() throws IOException {
+        while (!pending.isEmpty()) {
+            COSBase base = pending.poll();
+            writeObject(numbers.get(base), base, null, 0);
+        }
+    }
+
+    private void reserve(long num) {
+        if (num >= offsets.length) {
+            final int size = (int)Math.max(num + 1, offsets.length * 2L);
+            offsets = Arrays.copyOf(offsets, size);
+            containers = Arrays.copyOf(containers, size);
+        }
+    }
+
+    /**
+     * Start an indirect object, either in the file or, if 'pack' is set, in
+     * the current object stream.
+     */
+    private void startObject(long num, boolean pack) throws IOException {
+        reserve(num);
+
+        if (pack) {
+            if (packedCount == PACK_OBJECTS || packed.size() >= PACK_BYTES) {
+                writeObjectStream();
+            }
+            // Record the position, the container is known when it is written.
+            packedNumbers[packedCount] = num;
+            packedOffsets[packedCount++] = packed.size();
+            out = new COSStandardOutputStream(packed);
+
+            return;
+        }
+
+        offsets[(int)num] = file.getPos();
+
+        write(num + " 0 obj");
+        file.writeEOL();
+    }
+
+    private void endObject() throws IOException {
+        if (out != file) {
+            out.writeEOL();
+            out = file;
+
+            return;
+        }
+
+        file.writeEOL();
+        file.write(COSWriter.ENDOBJ);
+        file.writeEOL();
+    }
+
+    /**
+     * Write the objects packed so far as a compressed object stream.
+     */
+    private void writeObjectStream() throws IOException {
+        if (packedCount == 0) {
+            return;
+        }
+
+        final long num = nextNumber++;
+        reserve(num);
+
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < packedCount; ++i) {
+            final long member = packedNumbers[i];
+            containers[(int)member] = num;
+            offsets[(int)member] = i;
+            header.append(member).append(' ').append(packedOffsets[i]).append(' ');
+        }
+        final byte[] first = header.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(packed.size() / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(data, deflater)) {
+            stream.write(first);
+            packed.writeTo(stream);
+        } finally {
+            deflater.end();
+        }
+
+        startObject(num, false);
+        write("<< /Type /ObjStm /N " + packedCount + " /First " + first.length +
+            " /Filter /FlateDecode /Length " + data.size() + " >>");
+        writeStreamData(data);
+        endObject();
+
+        packed.reset();
+        packedCount = 0;
+    }
+
+    private void writeStreamData(ByteArrayOutputStream data) throws IOException {
+        file.writeEOL();
+        file.write(COSWriter.STREAM);
+        file.writeCRLF();
+        data.writeTo(file);
+        file.writeCRLF();
+        file.write(COSWriter.ENDSTREAM);
+    }
+
+    /**
+     * Write an indirect object.
+     *
+     * @param num object number.
+     * @param base object to write.
+     * @param key optional dictionary key to replace with a reference.
+     * @param ref object number to use for 'key'.
+     */
+    private void writeObject(long num, COSBase base, COSName key, long ref)
+            throws IOException {
+        startObject(num, compress && !(base instanceof COSStream));
+
+        if (base instanceof COSStream) {
+            writeStream((COSStream)base);
+        } else if (base instanceof COSDictionary) {
+            writeDictionary((COSDictionary)base, key, ref);
+        } else {
+            writeDirect(base);
+        }
+
+        endObject();
+    }
+
+    private void writeStream(COSStream stream) throws IOException {
+        writeDictionary(stream, COSName.LENGTH, -stream.getLength());
+
+        out.writeEOL();
+        out.write(COSWriter.STREAM);
+        out.writeCRLF();
+        try (InputStream in = stream.createRawInputStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+        }
+        out.writeCRLF();
+        out.write(COSWriter.ENDSTREAM);
+    }
+
+    /**
+     * Write a dictionary, replacing the value of 'key' if given. A positive
+     * 'ref' is written as a reference, otherwise -ref is written as a number.
+     */
+    private void writeDictionary(COSDictionary dict, COSName key, long ref)
+            throws IOException {
+        out.write(COSWriter.DICT_OPEN);
+        for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+            if (entry.getKey().equals(key) || entry.getValue() == null) {
+                continue;
+            }
+
+            final COSBase value = entry.getValue();
+            if (value instanceof COSDictionary) {
+                // As COSWriter does, write XObject and Resources dictionaries
+                // direct to save space, avoiding self references.
+                COSDictionary child = (COSDictionary)value;
+                setDirect(child.getItem(COSName.XOBJECT), !COSName.XOBJECT.equals(entry.getKey()));
+                setDirect(child.getItem(COSName.RESOURCES), !COSName.RESOURCES.equals(entry.getKey()));
+            }
+
+            entry.getKey().writePDF(out);
+            out.write(COSWriter.SPACE);
+            writeValue(value);
+            out.write(COSWriter.SPACE);
+        }
+        if (key != null) {
+            key.writePDF(out);
+            write(ref > 0 ? " " + ref + " 0 R " : " " + (-ref) + " ");
+        }
+        out.write(COSWriter.DICT_CLOSE);
+    }
+
+    private static void setDirect(COSBase base, boolean state) {
+        if (base != null && state) {
+            base.setDirect(true);
+        }
+    }
+
+    /**
+     * Write a value, using a reference for indirect objects. As with
+     * COSWriter, streams and non-direct dictionaries are indirect, whereas 
+     * other objects behind a reference are written direct.
+     */
+    private void writeValue(COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            base = resolve(base);
+            if (base == null) {
+                COSNull.NULL.writePDF(out);
+            } else if (base instanceof COSDictionary) {
+                writeReference(base);
+            } else {
+                writeDirect(base);
+            }
+        } else if (base instanceof COSStream ||
+                (base instanceof COSDictionary && !base.isDirect())) {
+            writeReference(base);
+        } else {
+            writeDirect(base);
+        }
+    }
+
+    private void writeReference(COSBase base) throws IOException {
+        write(numberOf(base) + " 0 R");
+    }
+
+    private void writeDirect(COSBase base) throws IOException {
+        if (base instanceof COSDictionary) {
+            writeDictionary((COSDictionary)base, null, 0);
+        } else if (base instanceof COSArray) {
+            out.write(COSWriter.ARRAY_OPEN);
+            boolean first = true;
+            for (COSBase item : (COSArray)base) {
+                if (!first) {
+                    out.write(COSWriter.SPACE);
+                }
+                first = false;
+                if (item == null) {
+                    COSNull.NULL.writePDF(out);
+                } else {
+                    writeValue(item);
+                }
+            }
+            out.write(COSWriter.ARRAY_CLOSE);
+        } else if (base instanceof COSString) {
+            COSWriter.writeString((COSString)base, out);
+        } else if (base instanceof COSName) {
+            ((COSName)base).writePDF(out);
+        } else if (base instanceof COSInteger) {
+            ((COSInteger)base).writePDF(out);
+        } else if (base instanceof COSFloat) {
+            ((COSFloat)base).writePDF(out);
+        } else if (base instanceof COSBoolean) {
+            ((COSBoolean)base).writePDF(out);
+        } else {
+            COSNull.NULL.writePDF(out);
+        }
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+}
@@ -0,0 +1,96 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DocumentCacheTest checks that documents are shared only between users
+ * asking for the same memory usage, and only with one user at a time.
+ */
+package phillockett65.PDFBookGen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DocumentCacheTest {
+
+    @TempDir
+    Path temp;
+
+    private String source;
+
+
+    @BeforeEach
+    public void createSource() throws IOException {
+        source = TestDocuments.create(new File(temp.toFile(), "source.pdf"), 4, 0);
+    }
+
+    @Test
+    public void sharesHeldDocument() throws Exception {
+        final MemoryUsageSetting heap = MemoryUsageSetting.setupMainMemoryOnly();
+        try (DocumentCache.Handle held = DocumentCache.hold(source, heap)) {
+            assertThrows(IllegalStateException.class, held::getDocument);
+
+            PDDocument first;
+            try (DocumentCache.Handle handle = DocumentCache.acquire(source, heap)) {
+                first = handle.getDocument();
+            }
+            try (DocumentCache.Handle handle = DocumentCache.acquire(source, heap)) {
+                assertSame(first, handle.getDocument());
+            }
+        }
+        assertEquals(0, DocumentCache.size());
+    }
+
+    @Test
+    public void givesConcurrentUsersSeparateDocuments() throws Exception {
+        final MemoryUsageSetting heap = MemoryUsageSetting.setupMainMemoryOnly();
+        try (DocumentCache.Handle one = DocumentCache.acquire(source, heap);
+                DocumentCache.Handle two = DocumentCache.acquire(source, heap)) {
+            assertNotSame(one.getDocument(), two.getDocument());
+            assertEquals(4, two.getDocument().getNumberOfPages());
+        }
+        assertEquals(0, DocumentCache.size());
+    }
+
+    @Test
+    public void keepsMemorySettingsApart() throws Exception {
+        final MemoryUsageSetting heap = MemoryUsageSetting.setupMainMemoryOnly();
+        final MemoryUsageSetting scratch = MemoryUsageSetting.setupTempFileOnly();
+        scratch.setTempDir(temp.toFile());
+        try (DocumentCache.Handle held = DocumentCache.hold(source, heap);
+                DocumentCache.Handle handle = DocumentCache.acquire(source, scratch)) {
+            assertEquals(2, DocumentCache.size());
+            assertEquals(4, handle.getDocument().getNumberOfPages());
+        }
+        assertEquals(0, DocumentCache.size());
+    }
+
+}
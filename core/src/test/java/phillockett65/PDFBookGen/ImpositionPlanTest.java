@@ -0,0 +1,133 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ImpositionPlanTest checks the page order of ImpositionPlan against the
+ * arrangement of the original page by page generator and the sheet counts
+ * of Signature.
+ */
+package phillockett65.PDFBookGen;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ImpositionPlanTest {
+
+    /**
+     * Arrange the pages as the original generator did: a section of 
+     * 4 * sheets pages at a time, adding the pages in pairs to both sides of
+     * each sheet and leaving out any side with both pages missing.
+     * @return the left and right page of each generated side, -1 if blank.
+     */
+    private static List<int[]> baselineSides(int sheets, int first, int last) {
+        final List<int[]> sides = new ArrayList<int[]>();
+        for (int fpn = first; fpn < last; fpn += 4 * sheets) {
+            final int count = Math.min(fpn + 4 * sheets, last) - fpn;
+            int lo = 0;
+            int hi = 4 * sheets - 1;
+            for (int sheet = 0; sheet < sheets; ++sheet) {
+                addSide(sides, fpn, count, lo++, hi--);
+                addSide(sides, fpn, count, hi--, lo++);
+            }
+        }
+
+        return sides;
+    }
+
+    private static void addSide(List<int[]> sides, int fpn, int count, int right, int left) {
+        if (left < count || right < count) {
+            sides.add(new int[] { left < count ? fpn + left : -1, right < count ? fpn + right : -1 });
+        }
+    }
+
+    /**
+     * @return the left and right page of each side the plan generates.
+     */
+    private static List<int[]> planSides(ImpositionPlan plan) {
+        final List<int[]> sides = new ArrayList<int[]>();
+        for (int sheet = 0; sheet < plan.getSheetCount(); ++sheet) {
+            for (int side = ImpositionPlan.FRONT; side <= ImpositionPlan.BACK; ++side) {
+                final int lpn = plan.getPage(sheet, side, ImpositionPlan.LEFT);
+                final int rpn = plan.getPage(sheet, side, ImpositionPlan.RIGHT);
+                if (lpn >= 0 || rpn >= 0) {
+                    sides.add(new int[] { lpn, rpn });
+                }
+            }
+        }
+
+        return sides;
+    }
+
+    @Test
+    public void matchesBaselineOrder() {
+        for (int sheets = 1; sheets <= 5; ++sheets) {
+            for (int first = 0; first < 3; ++first) {
+                for (int last = first + 1; last <= first + 45; ++last) {
+                    final String settings = sheets + " sheets, pages " + first + " to " + last;
+                    final ImpositionPlan plan = ImpositionPlan.of(sheets, first, last, true);
+                    final List<int[]> expected = baselineSides(sheets, first, last);
+                    final List<int[]> actual = planSides(plan);
+
+                    assertEquals(expected.size(), actual.size(), settings);
+                    for (int i = 0; i < expected.size(); ++i) {
+                        assertArrayEquals(expected.get(i), actual.get(i), settings + ", side " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesSignatureCounts() {
+        for (int sheets = 1; sheets <= 5; ++sheets) {
+            for (int last = 1; last <= 45; ++last) {
+                final String settings = sheets + " sheets, " + last + " pages";
+                final ImpositionPlan plan = ImpositionPlan.of(sheets, 0, last, false);
+                final Signature signature = new Signature(sheets, 0, last - 1);
+
+                assertEquals(signature.sheetCount, plan.getSheetCount(), settings);
+                assertEquals(signature.sigCount, plan.getSignatureCount(), settings);
+                assertEquals(signature.lastSigFirstPage,
+                    plan.getSignatureFirstPage(plan.getSignatureCount() - 1), settings);
+            }
+        }
+    }
+
+    @Test
+    public void countsGeneratedSides() {
+        // The last signature has a single page, so the back of its sheet is blank.
+        final ImpositionPlan plan = ImpositionPlan.of(2, 0, 9, false);
+        assertEquals(2, plan.getSignatureCount());
+        assertEquals(4, plan.getSideCount(0));
+        assertEquals(1, plan.getSideCount(1));
+
+        int total = 0;
+        for (int sig = 0; sig < plan.getSignatureCount(); ++sig) {
+            total += plan.getSideCount(sig);
+        }
+        assertEquals(planSides(plan).size(), total);
+    }
+
+}
@@ -0,0 +1,257 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageCountProbeTest checks the page count read by PageCountProbe against
+ * the count of the document loaded by PDFBox, for classic cross reference
+ * tables, cross reference streams, hybrid files and incremental updates, and
+ * that PDFBook falls back to loading a document the probe can't read.
+ */
+package phillockett65.PDFBookGen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PageCountProbeTest {
+
+    private static final String PAGE =
+        "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 200 200] >>";
+
+    @TempDir
+    Path temp;
+
+
+    /************************************************************************
+     * Support code for the tests.
+     */
+
+    /**
+     * Writes a PDF by hand, one object and cross reference section at a time,
+     * so that the tests control exactly how the objects are found.
+     */
+    private static class Builder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Map<Integer, Integer> offsets = new TreeMap<>();
+        private boolean first = true;
+
+        private Builder() {
+            text("%PDF-1.5\n");
+        }
+
+        private void text(String text) {
+            bytes(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private void bytes(byte[] data) {
+            out.write(data, 0, data.length);
+        }
+
+        private int position() {
+            return out.size();
+        }
+
+        private void object(int num, String body) {
+            offsets.put(num, position());
+            text(num + " 0 obj\n" + body + "\nendobj\n");
+        }
+
+        private void stream(int num, String dict, byte[] data) {
+            offsets.put(num, position());
+            text(num + " 0 obj\n<< " + dict + " /Filter /FlateDecode /Length " +
+                data.length + " >>\nstream\n");
+            bytes(data);
+            text("\nendstream\nendobj\n");
+        }
+
+        /**
+         * Write a cross reference table of the objects written since the 
+         * last one, followed by the trailer.
+         * @return the offset of the table.
+         */
+        private int xref(String trailer) {
+            final int start = position();
+            text("xref\n");
+            if (first) {
+                text("0 1\n0000000000 65535 f\r\n");
+                first = false;
+            }
+            for (Map.Entry<Integer, Integer> entry : offsets.entrySet()) {
+                text(entry.getKey() + " 1\n" + String.format("%010d 00000 n\r\n", entry.getValue()));
+            }
+            offsets.clear();
+            text("trailer\n" + trailer + "\nstartxref\n" + start + "\n%%EOF\n");
+
+            return start;
+        }
+
+        private String save(File file) throws IOException {
+            Files.write(file.toPath(), out.toByteArray());
+
+            return file.getPath();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        final Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+    private String file(String name) {
+        return new File(temp.toFile(), name).getPath();
+    }
+
+    private static int loadedCount(String path) throws IOException {
+        try (PDDocument doc = PDDocument.load(new File(path))) {
+            return doc.getNumberOfPages();
+        }
+    }
+
+    private static void checkProbe(String path, int expected) throws IOException {
+        assertEquals(expected, loadedCount(path));
+        assertEquals(expected, PageCountProbe.probe(path));
+    }
+
+
+
+    /************************************************************************
+     * Tests.
+     */
+
+    @Test
+    public void readsXrefTable() throws Exception {
+        checkProbe(TestDocuments.create(new File(file("table.pdf")), 7, 0), 7);
+    }
+
+    @Test
+    public void readsXrefStream() throws Exception {
+        final String source = TestDocuments.create(new File(file("source.pdf")), 150, 0);
+        final String output = file("stream.pdf");
+        try (PDDocument doc = PDDocument.load(new File(source));
+                StreamingWriter writer = new StreamingWriter(output, doc.getVersion(), true)) {
+            for (PDPage page : doc.getPages()) {
+                writer.writePage(page);
+            }
+            writer.finish(doc);
+        }
+
+        checkProbe(output, 150);
+    }
+
+    @Test
+    public void readsHybridFile() throws Exception {
+        // The page tree is in an object stream that only the /XRefStm 
+        // cross reference stream knows about.
+        final String pages = "<< /Type /Pages /Count 1 /Kids [3 0 R] >>";
+        final String header = "2 0 3 " + (pages.length() + 1) + " ";
+        final byte[] objects = (header + pages + " " + PAGE).getBytes(StandardCharsets.ISO_8859_1);
+
+        Builder pdf = new Builder();
+        pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        pdf.stream(4, "/Type /ObjStm /N 2 /First " + header.length(), deflate(objects));
+
+        final byte[] entries = {
+            2, 0, 0, 0, 4, 0, 0,
+            2, 0, 0, 0, 4, 0, 1,
+        };
+        final int xrefStm = pdf.position();
+        pdf.stream(5, "/Type /XRef /Size 6 /W [1 4 2] /Index [2 2]", deflate(entries));
+        pdf.xref("<< /Size 6 /Root 1 0 R /XRefStm " + xrefStm + " >>");
+
+        checkProbe(pdf.save(new File(file("hybrid.pdf"))), 1);
+    }
+
+    @Test
+    public void followsPrevChain() throws Exception {
+        Builder pdf = new Builder();
+        pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        pdf.object(2, "<< /Type /Pages /Count 1 /Kids [3 0 R] >>");
+        pdf.object(3, PAGE);
+        final int prev = pdf.xref("<< /Size 4 /Root 1 0 R >>");
+
+        // An incremental update that adds a page. The catalog is only found 
+        // through /Prev.
+        pdf.object(2, "<< /Type /Pages /Count 2 /Kids [3 0 R 4 0 R] >>");
+        pdf.object(4, PAGE);
+        pdf.xref("<< /Size 5 /Root 1 0 R /Prev " + prev + " >>");
+
+        checkProbe(pdf.save(new File(file("updated.pdf"))), 2);
+    }
+
+    @Test
+    public void fallsBackOnIndirectCount() throws Exception {
+        Builder pdf = new Builder();
+        pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        pdf.object(2, "<< /Type /Pages /Count 4 0 R /Kids [3 0 R] >>");
+        pdf.object(3, PAGE);
+        pdf.object(4, "1");
+        pdf.xref("<< /Size 5 /Root 1 0 R >>");
+        final String path = pdf.save(new File(file("indirect.pdf")));
+
+        assertEquals(-1, PageCountProbe.probe(path));
+        assertEquals(1, PDFBook.getPDFPageCount(path));
+    }
+
+    @Test
+    public void fallsBackOnBrokenXref() throws Exception {
+        final String path = TestDocuments.create(new File(file("broken.pdf")), 5, 0);
+        final byte[] data = Files.readAllBytes(Path.of(path));
+        final String text = new String(data, StandardCharsets.ISO_8859_1);
+        final int start = text.lastIndexOf("startxref") + "startxref".length();
+        for (int i = start; i < data.length && data[i] != '%'; ++i) {
+            if (Character.isDigit(data[i])) {
+                data[i] = '1';
+            }
+        }
+        Files.write(Path.of(path), data);
+
+        assertEquals(-1, PageCountProbe.probe(path));
+        assertEquals(5, PDFBook.getPDFPageCount(path));
+    }
+
+    @Test
+    public void rejectsMissingFile() {
+        assertEquals(-1, PageCountProbe.probe(file("missing.pdf")));
+    }
+
+}
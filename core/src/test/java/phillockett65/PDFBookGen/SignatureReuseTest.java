@@ -0,0 +1,198 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SignatureReuseTest generates booklets through the OutputCache, the 
+ * SignatureCache and PageHashes together, as the GUI does, and checks that
+ * every regenerated booklet matches one generated from scratch.
+ */
+package phillockett65.PDFBookGen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import phillockett65.PDFBookGen.Monitor.JobStats;
+
+public class SignatureReuseTest {
+
+    @TempDir
+    Path temp;
+
+    private OutputCache cache;
+    private SignatureCache signatures;
+    private PageHashes hashes;
+
+
+    /************************************************************************
+     * Support code for the tests.
+     */
+
+    @BeforeEach
+    public void createCaches() throws IOException {
+        cache = new OutputCache(temp.resolve("cache").toString(), 64L * 1024 * 1024);
+        signatures = new SignatureCache(temp.toString());
+        hashes = new PageHashes(temp.resolve("pages").toString());
+    }
+
+    private String file(String name) {
+        return new File(temp.toFile(), name).getPath();
+    }
+
+    private PDFBook book(String source, String output, int sheets) {
+        PDFBook book = new PDFBook(source, output);
+        book.setPageSize("A4");
+        book.setSheetCount(sheets);
+
+        return book;
+    }
+
+    /**
+     * Generate a booklet reusing the signatures of the previous run, without
+     * the OutputCache, and check it matches one generated from scratch.
+     * @return the time spent importing source pages, which is 0 if every 
+     * signature was reused.
+     */
+    private long regenerate(String source, String output, int sheets, int first)
+            throws IOException {
+        PDFBook book = book(source, output, sheets);
+        book.setFirstPage(first);
+        book.setSignatureCache(signatures);
+        book.setPageHashes(hashes);
+        assertTrue(book.genBooklet());
+
+        final String fresh = file("fresh.pdf");
+        PDFBook scratch = book(source, fresh, sheets);
+        scratch.setFirstPage(first);
+        assertTrue(scratch.genBooklet());
+        assertEquals(TestDocuments.pageText(fresh), TestDocuments.pageText(output));
+
+        return book.getStats().getTime(JobStats.IMPORT);
+    }
+
+    /**
+     * Generate a booklet with the caches, then the same booklet from scratch,
+     * and check they hold the same pages.
+     */
+    private void generateAndCompare(String source, String output, int sheets)
+            throws IOException {
+        PDFBook book = book(source, output, sheets);
+        book.setOutputCache(cache);
+        book.setSignatureCache(signatures);
+        book.setPageHashes(hashes);
+        assertTrue(book.genBooklet());
+
+        final String fresh = file("fresh.pdf");
+        assertTrue(book(source, fresh, sheets).genBooklet());
+        assertEquals(TestDocuments.pageText(fresh), TestDocuments.pageText(output));
+    }
+
+
+
+    /************************************************************************
+     * Tests.
+     */
+
+    @Test
+    public void reusesAfterCacheHitWithShortLastSignature() throws Exception {
+        // With 1 sheet per signature, page 5 is alone on the last sheet, 
+        // whose back is blank and so is not generated.
+        final File source = new File(temp.toFile(), "source.pdf");
+        TestDocuments.create(source, 5, 0);
+
+        generateAndCompare(source.getPath(), file("first.pdf"), 1);
+
+        // Served from the OutputCache.
+        generateAndCompare(source.getPath(), file("second.pdf"), 1);
+        assertEquals(1, cache.getHits());
+
+        // Only the first signature changes, the last one is reused.
+        TestDocuments.create(source, 5, 1);
+        generateAndCompare(source.getPath(), file("third.pdf"), 1);
+        assertEquals(3, TestDocuments.pageText(file("third.pdf")).size());
+    }
+
+    @Test
+    public void reusesUnchangedSignatures() throws Exception {
+        final File source = new File(temp.toFile(), "source.pdf");
+        TestDocuments.create(source, 16, 0);
+
+        assertTrue(regenerate(source.getPath(), file("first.pdf"), 1, 0) > 0);
+        assertEquals(0, regenerate(source.getPath(), file("second.pdf"), 1, 0));
+    }
+
+    @Test
+    public void splicesEditedSignature() throws Exception {
+        final File source = new File(temp.toFile(), "source.pdf");
+        TestDocuments.create(source, 16, 0);
+        regenerate(source.getPath(), file("first.pdf"), 1, 0);
+
+        // Only the second signature is imposed again.
+        TestDocuments.create(source, 16, 6);
+        assertTrue(regenerate(source.getPath(), file("second.pdf"), 1, 0) > 0);
+        assertNotEquals(TestDocuments.pageText(file("first.pdf")),
+            TestDocuments.pageText(file("second.pdf")));
+    }
+
+    @Test
+    public void reusesSignaturesThatMove() throws Exception {
+        // Signatures are found by the hashes of their pages, so dropping the
+        // first signature still reuses the rest from their new position.
+        final File source = new File(temp.toFile(), "source.pdf");
+        TestDocuments.create(source, 16, 0);
+        regenerate(source.getPath(), file("first.pdf"), 1, 0);
+
+        assertEquals(0, regenerate(source.getPath(), file("second.pdf"), 1, 4));
+        assertEquals(6, TestDocuments.pageText(file("second.pdf")).size());
+    }
+
+    @Test
+    public void countsOutputCacheHitsAndMisses() throws Exception {
+        final File source = new File(temp.toFile(), "source.pdf");
+        TestDocuments.create(source, 8, 0);
+
+        generateAndCompare(source.getPath(), file("first.pdf"), 1);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        generateAndCompare(source.getPath(), file("second.pdf"), 1);
+        assertEquals(1, cache.getHits());
+
+        // Different settings miss.
+        generateAndCompare(source.getPath(), file("third.pdf"), 2);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // So does an edited source.
+        TestDocuments.create(source, 8, 3);
+        generateAndCompare(source.getPath(), file("fourth.pdf"), 2);
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+}
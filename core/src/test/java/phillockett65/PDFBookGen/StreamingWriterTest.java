@@ -0,0 +1,126 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * StreamingWriterTest writes documents with the StreamingWriter, with and
+ * without compressed object streams, and checks that PDFBox loads them back
+ * with the same pages.
+ */
+package phillockett65.PDFBookGen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StreamingWriterTest {
+
+    @TempDir
+    Path temp;
+
+
+    /************************************************************************
+     * Support code for the tests.
+     */
+
+    private String file(String name) {
+        return new File(temp.toFile(), name).getPath();
+    }
+
+    /**
+     * Write every page of the source to the output with a StreamingWriter.
+     */
+    private void copy(String source, String output, boolean compress) throws IOException {
+        try (PDDocument doc = PDDocument.load(new File(source));
+                StreamingWriter writer = new StreamingWriter(output, doc.getVersion(), compress)) {
+            for (PDPage page : doc.getPages()) {
+                writer.writePage(page);
+            }
+            writer.finish(doc);
+        }
+    }
+
+    /**
+     * Check the output loads with the same pages as the source.
+     */
+    private void checkCopy(String source, String output) throws IOException {
+        assertFalse(new File(output + ".part").exists());
+        assertEquals(TestDocuments.pageText(source), TestDocuments.pageText(output));
+        try (PDDocument doc = PDDocument.load(new File(output))) {
+            assertEquals(PDFBook.getPDFPageCount(source), doc.getNumberOfPages());
+        }
+    }
+
+
+
+    /************************************************************************
+     * Tests.
+     */
+
+    @Test
+    public void writesLoadableDocument() throws Exception {
+        final String source = TestDocuments.create(new File(file("source.pdf")), 12, 0);
+        final String output = file("plain.pdf");
+        copy(source, output, false);
+        checkCopy(source, output);
+    }
+
+    @Test
+    public void writesLoadableCompressedDocument() throws Exception {
+        // Enough pages to fill several object streams.
+        final String source = TestDocuments.create(new File(file("source.pdf")), 250, 0);
+        final String output = file("compressed.pdf");
+        copy(source, output, true);
+        checkCopy(source, output);
+
+        try (PDDocument doc = PDDocument.load(new File(output))) {
+            assertEquals(1.5f, doc.getVersion());
+            assertTrue(doc.getDocument().isXRefStream());
+        }
+        assertTrue(new File(output).length() < new File(file("source.pdf")).length());
+    }
+
+    @Test
+    public void generatesCompressedBooklet() throws Exception {
+        final String source = TestDocuments.create(new File(file("source.pdf")), 30, 0);
+
+        final String plain = file("plain.pdf");
+        PDFBook book = new PDFBook(source, plain);
+        book.setSheetCount(2);
+        assertTrue(book.genBooklet());
+
+        final String compressed = file("compressed.pdf");
+        book = new PDFBook(source, compressed);
+        book.setSheetCount(2);
+        book.setCompress(true);
+        assertTrue(book.genBooklet());
+
+        assertEquals(TestDocuments.pageText(plain), TestDocuments.pageText(compressed));
+    }
+
+}
@@ -0,0 +1,92 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * TestDocuments creates the small source PDFs used by the tests, with the 
+ * page number written on each page, and reads back the text of each page of
+ * a generated booklet so that booklets can be compared.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    /**
+     * Create a source PDF of A5 pages, each showing "Page n".
+     *
+     * @param file to create.
+     * @param pages number of pages.
+     * @param edited page number (from 1) to show different text on, or 0.
+     * @return the path of the file.
+     */
+    static String create(File file, int pages, int edited) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int pn = 1; pn <= pages; ++pn) {
+                PDPage page = new PDPage(PDRectangle.A5);
+                doc.addPage(page);
+                try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                    stream.beginText();
+                    stream.setFont(PDType1Font.HELVETICA, 24);
+                    stream.newLineAtOffset(72, 300);
+                    stream.showText("Page " + pn + (pn == edited ? " edited" : ""));
+                    stream.endText();
+                }
+            }
+            doc.save(file);
+        }
+
+        return file.getPath();
+    }
+
+    /**
+     * Read the text of each page of a PDF.
+     *
+     * @param path of the PDF.
+     * @return the text of each page, indexed by page number.
+     */
+    static List<String> pageText(String path) throws IOException {
+        List<String> text = new ArrayList<>();
+        try (PDDocument doc = PDDocument.load(new File(path))) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int pn = 1; pn <= doc.getNumberOfPages(); ++pn) {
+                stripper.setStartPage(pn);
+                stripper.setEndPage(pn);
+                text.add(stripper.getText(doc).trim());
+            }
+        }
+
+        return text;
+    }
+
+}
@@ -32,14 +32,26 @@ public class GenerateCommand implements Command {
     private static final int DD = 0;
 
     private final String className = "GenerateCommand";
+    private final boolean idle;
 
+    /**
+     * Constructor. A generate requested while a job is running does nothing,
+     * so it is not recorded.
+     */
     public GenerateCommand() {
+        idle = !Model.getInstance().isGenerating();
     }
 
+    /**
+     * Generate the booklet. Undo and redo repeat the job with unchanged
+     * settings, so the Model serves them from its output cache.
+     */
     private void worker() {
         Model model = Model.getInstance();
 
-        model.getController().fileSaved(model.generate());
+        if (!model.generate(saved -> model.getController().fileSaved(saved))) {
+            Debug.warning(DD, "%s not started, job already running", className);
+        }
     }
 
     @Override
@@ -49,13 +61,13 @@ public class GenerateCommand implements Command {
 
     @Override
     public void undo() {
-        Debug.trace(DD, "undo " + className);
+        Debug.trace(DD, "undo %s", className);
         worker();
     }
 
     @Override
     public void redo() {
-        Debug.trace(DD, "redo " + className);
+        Debug.trace(DD, "redo %s", className);
         execute();
     }
 
@@ -71,7 +83,7 @@ public class GenerateCommand implements Command {
 
     @Override
     public boolean isChanging() {
-        return true;
+        return idle;
     }
 
     @Override
@@ -130,7 +130,7 @@ public class Invoker {
      */
     public void invoke(Command command) {
         newCommand = command;
-        Debug.trace(DD, "invoke(" + newCommand + ")");
+        Debug.trace(DD, "invoke(%s)", newCommand);
 
         // If 'new' command does not change it's value, silently drop it.
         if (isNewCommandUnchanging()) {
@@ -184,7 +184,7 @@ public class Invoker {
      * Undo the top command on the undo stack and move it to the redo stack.
      */
     public void undo() {
-        Debug.trace(DD, "undo received " + undoStack.size());
+        Debug.trace(DD, "undo received %s", undoStack.size());
         if (isNoCurrentCommand()) {
             return;
         }
@@ -198,7 +198,7 @@ public class Invoker {
      * Redo the top command on the redo stack and move it to the undo stack.
      */
     public void redo() {
-        Debug.trace(DD, "redo received " + redoStack.size());
+        Debug.trace(DD, "redo received %s", redoStack.size());
         if (redoStack.isEmpty()) {
             return;
         }
@@ -239,9 +239,9 @@ public class Invoker {
      * Debug.
      */
     public void dump() {
-        Debug.info(DD, "undoStack: " + undoStack);
-        Debug.info(DD, "redoStack: " + redoStack);
-        Debug.info(DD, "doQueue: " + doQueue);
+        Debug.info(DD, "undoStack: %s", undoStack);
+        Debug.info(DD, "redoStack: %s", redoStack);
+        Debug.info(DD, "doQueue: %s", doQueue);
         Debug.info(DD, "");
     }
 
@@ -55,13 +55,13 @@ public class LastPageCommand implements Command {
 
     @Override
     public void undo() {
-        Debug.trace(DD, "undo " + className + " -> " + originalValue);
+        Debug.trace(DD, "undo %s -> %s", className, originalValue);
         worker(originalValue);
     }
 
     @Override
     public void redo() {
-        Debug.trace(DD, "redo " + className + " -> " + newValue);
+        Debug.trace(DD, "redo %s -> %s", className, newValue);
         execute();
     }
 
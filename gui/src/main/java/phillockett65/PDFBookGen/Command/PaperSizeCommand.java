@@ -47,7 +47,7 @@ public class PaperSizeCommand implements Command {
 
     @Override
     public void undo() {
-        Debug.trace(DD, "undo " + className + " -> " + originalValue);
+        Debug.trace(DD, "undo %s -> %s", className, originalValue);
         Model model = Model.getInstance();
 
         model.setPaperSize(originalValue);
@@ -56,7 +56,7 @@ public class PaperSizeCommand implements Command {
 
     @Override
     public void redo() {
-        Debug.trace(DD, "redo " + className + " -> " + newValue);
+        Debug.trace(DD, "redo %s -> %s", className, newValue);
         execute();
         Model.getInstance().syncUI();
     }
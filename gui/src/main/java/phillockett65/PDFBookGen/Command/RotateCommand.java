@@ -47,7 +47,7 @@ public class RotateCommand implements Command {
 
     @Override
     public void undo() {
-        Debug.trace(DD, "undo " + className + " -> " + originalState);
+        Debug.trace(DD, "undo %s -> %s", className, originalState);
         Model model = Model.getInstance();
 
         model.setRotateCheck(originalState);
@@ -56,7 +56,7 @@ public class RotateCommand implements Command {
 
     @Override
     public void redo() {
-        Debug.trace(DD, "redo " + className + " -> " + newState);
+        Debug.trace(DD, "redo %s -> %s", className, newState);
         execute();
         Model.getInstance().syncUI();
     }
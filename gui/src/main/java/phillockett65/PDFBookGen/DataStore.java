@@ -55,6 +55,10 @@ public class DataStore implements Serializable {
 
     public Integer sigSize;
 
+    public String memoryMode;
+    public Integer maxHeap;
+    public String scratchDirectory;
+
 
 
     /************************************************************************
@@ -127,19 +131,23 @@ public class DataStore implements Serializable {
      */
     public void dump() {
         Debug.info(DD, "");
-        Debug.info(DD, "main position (" + mainX + ", " + mainY + ")");
-        Debug.info(DD, "help position (" + helpX + ", " + helpY + ")");
+        Debug.info(DD, "main position (%s, %s)", mainX, mainY);
+        Debug.info(DD, "help position (%s, %s)", helpX, helpY);
+        Debug.info(DD, "");
+        Debug.info(DD, "sourceDocument = %s", sourceDocument);
+        Debug.info(DD, "outputFileName = %s", outputFileName);
+        Debug.info(DD, "outputFilePath = %s", outputFilePath);
         Debug.info(DD, "");
-        Debug.info(DD, "sourceDocument = " + sourceDocument);
-        Debug.info(DD, "outputFileName = " + outputFileName);
-        Debug.info(DD, "outputFilePath = " + outputFilePath);
+        Debug.info(DD, "paperSize = %s", paperSize);
+        Debug.info(DD, "rotateCheck = %s", rotateCheck);
+        Debug.info(DD, "firstPage = %s", firstPage);
+        Debug.info(DD, "lastPage = %s", lastPage);
         Debug.info(DD, "");
-        Debug.info(DD, "paperSize = " + paperSize);
-        Debug.info(DD, "rotateCheck = " + rotateCheck);
-        Debug.info(DD, "firstPage = " + firstPage);
-        Debug.info(DD, "lastPage = " + lastPage);
+        Debug.info(DD, "sigSize = %s", sigSize);
         Debug.info(DD, "");
-        Debug.info(DD, "sigSize = " + sigSize);
+        Debug.info(DD, "memoryMode = %s", memoryMode);
+        Debug.info(DD, "maxHeap = %s", maxHeap);
+        Debug.info(DD, "scratchDirectory = %s", scratchDirectory);
         Debug.info(DD, "");
     }
 
@@ -25,8 +25,15 @@
 package phillockett65.PDFBookGen;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.collections.ObservableList;
 import javafx.geometry.Point2D;
 import javafx.scene.control.SpinnerValueFactory;
@@ -221,6 +228,10 @@ public class Model {
         setPageCount(100);
 
         setSigSize(1);
+
+        data.memoryMode = PDFBook.HEAP;
+        setMaxHeap(256);
+        data.scratchDirectory = "";
     }
 
 
@@ -242,6 +253,8 @@ public class Model {
 
         data.sigSize = getSigSize();
 
+        data.maxHeap = getMaxHeap();
+
         if (!DataStore.writeData(data, DATAFILE)) {
             data.dump();
 
@@ -269,6 +282,15 @@ public class Model {
         setPageRanges(data.firstPage, data.lastPage);
         
         setSigSize(data.sigSize);
+
+        // Settings saved before memory modes were introduced.
+        if (data.memoryMode == null) {
+            data.memoryMode = PDFBook.HEAP;
+        }
+        if (data.scratchDirectory == null) {
+            data.scratchDirectory = "";
+        }
+        setMaxHeap(data.maxHeap == null ? 256 : data.maxHeap);
     
         return true;
     }
@@ -279,17 +301,69 @@ public class Model {
      * Support code for "File Names" panel.
      */
 
+    private DocumentCache.Handle source = null;
+
     /**
      * @return the number of pages in the current source document.
      */
     private int fetchPageCount() {
         if (isSourceDocument()) {
+            preloadSource(data.sourceDocument);
+
             return PDFBook.getPDFPageCount(data.sourceDocument);
         }
 
         return 1;
     }
 
+    /**
+     * Load the source document into the DocumentCache on a background thread
+     * and hold it loaded, so that generating a booklet does not parse it again.
+     * The handle on any previous source is released.
+     * @param path of the source document.
+     */
+    private void preloadSource(String path) {
+        final MemoryUsageSetting setting = getMemoryUsage();
+
+        Thread thread = new Thread(() -> {
+            try {
+                DocumentCache.Handle handle = DocumentCache.hold(path, setting);
+                Platform.runLater(() -> holdSource(path, handle));
+            } catch (IOException e) {
+                Debug.critical(DD, e.getMessage());
+            }
+        }, "PDFBook preloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hold the source again after a change to the memory settings, as the
+     * DocumentCache only shares a document loaded with the same settings.
+     */
+    private void memoryChanged() {
+        if (isSourceDocument()) {
+            preloadSource(data.sourceDocument);
+        }
+    }
+
+    /**
+     * Called on the FX thread when a preload completes. Keep the handle if it
+     * is still for the current source, otherwise release it.
+     */
+    private void holdSource(String path, DocumentCache.Handle handle) {
+        if (!path.equals(data.sourceDocument)) {
+            handle.close();
+
+            return;
+        }
+
+        if (source != null) {
+            source.close();
+        }
+        source = handle;
+    }
+
     /**
      * Set the file path for the source PDF document.
      * @param text string of the source document file path.
@@ -429,9 +503,64 @@ public class Model {
     public boolean isRotateCheck() { return data.rotateCheck; }
 
 
+    private ObservableList<String> memoryModeList = FXCollections.observableArrayList();
+    private SpinnerValueFactory<Integer> maxHeapSVF;
+
+    /**
+     * @return the Observable List for the memory mode choice box.
+     */
+    public ObservableList<String> getMemoryModeList() { return memoryModeList; }
+
+    /**
+     * Note the selected memory mode.
+     * @param value of the currently selected memory mode as a string.
+     */
+    public void setMemoryMode(String value) {
+        data.memoryMode = value;
+        memoryChanged();
+    }
+
+    /**
+     * @return the currently selected memory mode string.
+     */
+    public String getMemoryMode() { return data.memoryMode; }
+
+    /**
+     * @return true if the memory limit applies to the selected memory mode.
+     */
+    public boolean isMaxHeapUsed() { return PDFBook.MIXED.equals(getMemoryMode()); }
+
+    /**
+     * @return the Value Factory for the memory limit spinner.
+     */
+    public SpinnerValueFactory<Integer> getMaxHeapSVF() { return maxHeapSVF; }
+
+    public int getMaxHeap() { return maxHeapSVF.getValue(); }
+    public void setMaxHeap(int value) {
+        maxHeapSVF.setValue(value);
+        if (isMaxHeapUsed()) {
+            memoryChanged();
+        }
+    }
+
+    /**
+     * Set the directory used for temp files in the Mixed and Temp File modes.
+     * @param text directory path, blank for the system default.
+     */
+    public void setScratchDirectory(String text) {
+        data.scratchDirectory = text;
+        memoryChanged();
+    }
+
+    /**
+     * @return the directory used for temp files, blank for the system default.
+     */
+    public String getScratchDirectory() { return data.scratchDirectory; }
+
+
     private int getPageCount() { return pageCount; }
     private void setPageCount(int value) {
-        Debug.trace(DD, "setPageCount(" + value + ")");
+        Debug.trace(DD, "setPageCount(%d)", value);
         pageCount = value;
         firstPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, value, 1);
         lastPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, value, value);
@@ -496,7 +625,7 @@ public class Model {
      */
     private void setPageRanges(int first, int last) {
         final int count = getPageCount();
-        Debug.trace(DD, "setPageCount(" + first + ", " + last + ") - " + count);
+        Debug.trace(DD, "setPageCount(%d, %d) - %d", first, last, count);
 
         if (last > count)
             last = count;
@@ -508,33 +637,174 @@ public class Model {
         BuildSignature();
     }
 
-    /**
-     * Use a PDFBook instance to generate booklet.
-     * @return true if document was generated, false otherwise.
-     */
-    public boolean generate() {
-        PDFBook booklet = new PDFBook(getSourceDocument(), getOutputDocument());
+    private PDFBook booklet = null;
+
+    // Booklets already generated, so that repeating a job is just a copy.
+    private final OutputCache cache = new OutputCache(
+        new File(System.getProperty("java.io.tmpdir"), "PDFBookGen-cache").getPath(),
+        512L * 1024 * 1024);
+
+    // Content hashes of source pages, so edited sources reuse signatures.
+    private final PageHashes pageHashes = new PageHashes(
+        new File(System.getProperty("java.io.tmpdir"), "PDFBookGen-pages").getPath());
 
-        booklet.setPageSize(getPaperSize());
-        booklet.setSheetCount(getSigSize());
-        booklet.setRotate(isRotateCheck());
+    // Signatures of the last booklet, reused when only some have changed.
+    private SignatureCache signatures = null;
 
+    private SignatureCache getSignatureCache() {
+        if (signatures == null) {
+            try {
+                signatures = new SignatureCache(getScratchDirectory());
+            } catch (IOException e) {
+                Debug.warning(DD, "Signatures will not be reused: %s", e.getMessage());
+            }
+        }
+
+        return signatures;
+    }
+
+    /**
+     * Take the current content settings for creating a PDFBook. The page 
+     * count already found for the source is used, so nothing is read, and
+     * the PDFBook can be created on any thread.
+     * @param output file path for the generated PDF.
+     * @return creates the configured PDFBook.
+     */
+    private Supplier<PDFBook> bookSupplier(String output) {
+        final String source = getSourceDocument();
+        final int pages = getPageCount();
+        final String paper = getPaperSize();
+        final int sheets = getSigSize();
+        final boolean rotate = isRotateCheck();
         final int first = getFirstPage();
         final int last = getLastPage();
-        booklet.setFirstPage(first-1);
-        booklet.setLastPage(last);
 
-        booklet.genBooklet();
+        return () -> {
+            final PDFBook book = new PDFBook(source, output, pages);
+
+            book.setPageSize(paper);
+            book.setSheetCount(sheets);
+            book.setRotate(rotate);
+            book.setFirstPage(first-1);
+            book.setLastPage(last);
+
+            return book;
+        };
+    }
+
+    /**
+     * Create a PDFBook with the current content settings.
+     * @param output file path for the generated PDF.
+     * @return the configured PDFBook.
+     */
+    private PDFBook createBook(String output) {
+        return bookSupplier(output).get();
+    }
+
+    /**
+     * @return creates a PDFBook with the current content settings for 
+     * previewing, which may be used off the FX thread, or null if there is
+     * no source document.
+     */
+    public Supplier<PDFBook> getPreviewBook() {
+        if (!isSourceDocument()) {
+            return null;
+        }
+
+        return bookSupplier("");
+    }
+
+    /**
+     * @return the memory usage setting for the selected memory mode.
+     */
+    public MemoryUsageSetting getMemoryUsage() {
+        return PDFBook.getMUS(getMemoryMode(), getMaxHeap(), getScratchDirectory());
+    }
+
+    /**
+     * @return true if a booklet is currently being generated, false otherwise.
+     */
+    public boolean isGenerating() { return booklet != null; }
+
+    /**
+     * Use a PDFBook instance to generate booklet as a background job. The 
+     * booklet is configured from the current settings on the calling (FX) 
+     * thread and generated on a daemon thread, with progress reported to the
+     * controller after each sheet.
+     * @param onDone called on the FX thread when the job finishes, with true 
+     * if the document was generated, false otherwise. Not called if the job 
+     * is cancelled.
+     * @return true if the job was started, false if a job is already running.
+     */
+    public boolean generate(Consumer<Boolean> onDone) {
+        if (isGenerating()) {
+            Debug.warning(DD, "generate() ignored, job already running");
+
+            return false;
+        }
+
+        final PDFBook book = createBook(getOutputDocument());
+
+        book.setMemoryMode(getMemoryMode());
+        book.setMaxHeap(getMaxHeap());
+        book.setScratchDirectory(getScratchDirectory());
+        book.setOutputCache(cache);
+        book.setSignatureCache(getSignatureCache());
+        book.setPageHashes(pageHashes);
+
+        Task<Boolean> task = new Task<Boolean>() {
+            @Override
+            protected Boolean call() {
+                book.setProgressListener((done, total) -> updateProgress(done, total));
+
+                return book.genBooklet();
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            booklet = null;
+            controller.generateFinished();
+            if (book.isCancelled()) {
+                controller.generateCancelled();
+            } else {
+                onDone.accept(task.getValue());
+            }
+        });
+        task.setOnFailed(event -> {
+            booklet = null;
+            Debug.critical(DD, String.valueOf(task.getException()));
+            controller.generateFinished();
+            onDone.accept(false);
+        });
+
+        booklet = book;
+        controller.generateStarted(task);
+
+        Thread thread = new Thread(task, "PDFBook generator");
+        thread.setDaemon(true);
+        thread.start();
 
         return true;
     }
 
+    /**
+     * Request that the current generation job stops. The output document is 
+     * not written.
+     */
+    public void cancelGenerate() {
+        if (isGenerating()) {
+            booklet.cancel();
+        }
+    }
+
 
     /**
      * Initialize "Output Content" panel.
      */
     private void initializeOutputContentPanel() {
-        paperSizeList.addAll("A0", "A1", "A2", "A3", "A4", "A5", "A6", "Letter", "Legal", "Tabloid");
+        paperSizeList.addAll(PDFBook.PAPER_SIZES);
+        memoryModeList.addAll(PDFBook.HEAP, PDFBook.MIXED, PDFBook.TEMP_FILE);
+        maxHeapSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(16, 65536, 256, 16);
         firstPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 100, 1);
         lastPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 100, 1);
     }
@@ -27,6 +27,7 @@ package phillockett65.PDFBookGen;
 import java.io.File;
 import java.util.Optional;
 
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
@@ -36,7 +37,9 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.Spinner;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Tooltip;
@@ -46,6 +49,7 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import phillockett65.Debug.Debug;
@@ -53,6 +57,8 @@ import phillockett65.PDFBookGen.Command.FirstPageCommand;
 import phillockett65.PDFBookGen.Command.GenerateCommand;
 import phillockett65.PDFBookGen.Command.Invoker;
 import phillockett65.PDFBookGen.Command.LastPageCommand;
+import phillockett65.PDFBookGen.Command.MaxHeapCommand;
+import phillockett65.PDFBookGen.Command.MemoryModeCommand;
 import phillockett65.PDFBookGen.Command.OutputDocumentCommand;
 import phillockett65.PDFBookGen.Command.OutputFileNameCommand;
 import phillockett65.PDFBookGen.Command.PaperSizeCommand;
@@ -100,6 +106,7 @@ public class PrimaryController {
         initializeFileNamesPanel();
         initializeOutputContentPanel();
         initializeSignatureStatePanel();
+        initializePreviewPanel();
         initializeStatusLine();
     }
 
@@ -122,6 +129,11 @@ public class PrimaryController {
                 @Override
                 public void handle(KeyEvent event) {
                     final String key = event.getCharacter();
+
+                    // Undoing or redoing a generate can't start a second job.
+                    if (model.isGenerating()) {
+                        return;
+                    }
         
                     switch ((int)key.charAt(0)) {
                     case 25:
@@ -166,7 +178,7 @@ public class PrimaryController {
     public void syncUI() {
         syncSourceDocumentTextField();
 
-        final boolean genAvailable = model.isSourceDocument();
+        final boolean genAvailable = model.isSourceDocument() && !model.isGenerating();
         generateButton.setDisable(!genAvailable);
         genMenuItem.setDisable(!genAvailable);
         asMenuItem.setDisable(!genAvailable);
@@ -180,11 +192,14 @@ public class PrimaryController {
         rotateCheckBox.setSelected(model.isRotateCheck());
 
         paperSizeChoiceBox.setValue(model.getPaperSize());
+        memoryModeChoiceBox.setValue(model.getMemoryMode());
+        syncMaxHeapSpinner();
         syncSigSizeSpinner();
 
         setTotalPageCountMessage();
         setOutputSheetCountMessage();
         setSignatureStateMessages();
+        syncPreview();
     }
 
     private void syncSourceDocumentTextField() {
@@ -268,6 +283,11 @@ public class PrimaryController {
         clearData();
     }
 
+    @FXML
+    private void editScratchOnAction() {
+        selectScratchDirectory();
+    }
+
     @FXML
     private void helpAboutOnAction() {
         final String title = model.getTitle();
@@ -311,6 +331,35 @@ public class PrimaryController {
         }
     }
 
+    /**
+     * Called by the model when a generation job has been started. Shows the 
+     * progress bar and cancel button and disables further generation.
+     * @param task running the job, used to track progress.
+     */
+    public void generateStarted(Task<?> task) {
+        progressBar.progressProperty().bind(task.progressProperty());
+        progressBar.setVisible(true);
+        cancelButton.setDisable(false);
+        cancelButton.setVisible(true);
+        syncUI();
+        setStatusMessage("Generating file: " + model.getOutputDocument());
+    }
+
+    /**
+     * Called by the model when a generation job has ended, for any reason.
+     */
+    public void generateFinished() {
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+        syncUI();
+    }
+
+    public void generateCancelled() {
+        setStatusMessage("Cancelled generating file: " + model.getOutputDocument());
+    }
+
     public void fileSaved(boolean saved) {
         if (saved) {
             setStatusMessage("Saved file: " + model.getOutputDocument());
@@ -338,7 +387,7 @@ public class PrimaryController {
 
     @FXML
     private void outputFileNameTextFieldKeyTyped(KeyEvent event) {
-        Debug.trace(DD, "outputFileNameTextFieldKeyTyped() " + outputFileNameTextField.getText());
+        Debug.trace(DD, "outputFileNameTextFieldKeyTyped() %s", outputFileNameTextField.getText());
 
         OutputFileNameCommand command = new OutputFileNameCommand(outputFileNameTextField.getText());
         invoker.invoke(command);
@@ -378,6 +427,26 @@ public class PrimaryController {
         }
     }
 
+    /**
+     * Use a DirectoryChooser dialogue to select the directory used for temp 
+     * files in the Mixed and Temp File memory modes.
+     */
+    private void selectScratchDirectory() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Select Scratch Directory");
+
+        File current = new File(model.getScratchDirectory());
+        if (current.isDirectory()) {
+            chooser.setInitialDirectory(current);
+        }
+
+        File dir = chooser.showDialog(model.getStage());
+        if (dir != null) {
+            model.setScratchDirectory(dir.getAbsolutePath());
+            setStatusMessage("Scratch directory: " + model.getScratchDirectory());
+        }
+    }
+
     private void saveAs() {
         // Set up the file chooser.
         FileChooser fileChooser = new FileChooser();
@@ -440,10 +509,17 @@ public class PrimaryController {
     @FXML
     private Button generateButton;
 
+    @FXML
+    private ChoiceBox<String> memoryModeChoiceBox;
+
+    @FXML
+    private Spinner<Integer> maxHeapSpinner;
+
     @FXML
     private void rotateCheckBoxActionPerformed(ActionEvent event) {
         RotateCommand command = new RotateCommand(rotateCheckBox.isSelected());
         invoker.invoke(command);
+        syncPreview();
     }
 
     @FXML
@@ -468,6 +544,11 @@ public class PrimaryController {
         lastPageSpinner.setValueFactory(model.getLastPageSVF());
     }
 
+    private void syncMaxHeapSpinner() {
+        maxHeapSpinner.setValueFactory(model.getMaxHeapSVF());
+        maxHeapSpinner.setDisable(!model.isMaxHeapUsed());
+    }
+
     /**
      * Initialize "Output Content" panel.
      */
@@ -475,10 +556,11 @@ public class PrimaryController {
         paperSizeChoiceBox.setItems(model.getPaperSizeList());
 
         paperSizeChoiceBox.getSelectionModel().selectedItemProperty().addListener( (v, oldValue, newValue) -> {
-            Debug.trace(DD, "paperSizeChoiceBox.Listener(" + newValue + "))");
+            Debug.trace(DD, "paperSizeChoiceBox.Listener(%s))", newValue);
 
             PaperSizeCommand command = new PaperSizeCommand(oldValue, newValue);
             invoker.invoke(command);
+            syncPreview();
         });
 
 
@@ -486,7 +568,7 @@ public class PrimaryController {
         firstPageSpinner.getValueFactory().wrapAroundProperty().set(false);
         
         firstPageSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
-            Debug.trace(DD, "firstPageSpinner.Listener(" + newValue + "))");
+            Debug.trace(DD, "firstPageSpinner.Listener(%s))", newValue);
 
             FirstPageCommand command = new FirstPageCommand(oldValue, newValue);
             invoker.invoke(command);
@@ -496,12 +578,32 @@ public class PrimaryController {
         lastPageSpinner.getValueFactory().wrapAroundProperty().set(false);
         
         lastPageSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
-            Debug.trace(DD, "lastPageSpinner.Listener(" + newValue + "))");
+            Debug.trace(DD, "lastPageSpinner.Listener(%s))", newValue);
 
             LastPageCommand command = new LastPageCommand(oldValue, newValue);
             invoker.invoke(command);
         });
         
+        memoryModeChoiceBox.setItems(model.getMemoryModeList());
+
+        memoryModeChoiceBox.getSelectionModel().selectedItemProperty().addListener( (v, oldValue, newValue) -> {
+            Debug.trace(DD, "memoryModeChoiceBox.Listener(%s))", newValue);
+
+            MemoryModeCommand command = new MemoryModeCommand(oldValue, newValue);
+            invoker.invoke(command);
+            maxHeapSpinner.setDisable(!model.isMaxHeapUsed());
+        });
+
+        syncMaxHeapSpinner();
+        maxHeapSpinner.getValueFactory().wrapAroundProperty().set(false);
+
+        maxHeapSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
+            Debug.trace(DD, "maxHeapSpinner.Listener(%s))", newValue);
+
+            MaxHeapCommand command = new MaxHeapCommand(oldValue, newValue);
+            invoker.invoke(command);
+        });
+
         paperSizeChoiceBox.setTooltip(new Tooltip("Paper size of the generated PDF document"));
         rotateCheckBox.setTooltip(new Tooltip("Rotate reverse side of sheet 180 degrees"));
         firstPageSpinner.setTooltip(new Tooltip("First page of source document to include in the generated document"));
@@ -509,6 +611,8 @@ public class PrimaryController {
         countLabel.setTooltip(new Tooltip("Number of pages from the source document that will be included in the generated document"));
         sheetLabel.setTooltip(new Tooltip("Number of sheets of paper needed for the generated document"));
         generateButton.setTooltip(new Tooltip("Generate the PDF document in booklet form"));
+        memoryModeChoiceBox.setTooltip(new Tooltip("Where document data is kept while generating: Heap (fastest), Mixed (heap up to the limit, then temp files) or Temp File (least memory)"));
+        maxHeapSpinner.setTooltip(new Tooltip("Memory limit in MB for the Mixed memory mode"));
     }
 
 
@@ -563,7 +667,7 @@ public class PrimaryController {
         sigSizeSpinner.getValueFactory().wrapAroundProperty().set(false);
         
         sigSizeSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
-            Debug.trace(DD, "sigSizeSpinner.Listener(" + newValue + "))");
+            Debug.trace(DD, "sigSizeSpinner.Listener(%s))", newValue);
 
             SignatureSizeCommand command = new SignatureSizeCommand(oldValue, newValue);
             invoker.invoke(command);
@@ -572,6 +676,33 @@ public class PrimaryController {
 
 
 
+    /************************************************************************
+     * Support code for "Preview" panel.
+     */
+
+    @FXML
+    private ListView<Integer> previewListView;
+
+    private SheetPreview preview;
+
+    /**
+     * Show the sheets for the current settings, only rendering them again if
+     * the settings that affect them have changed.
+     */
+    private void syncPreview() {
+        preview.setBook(model.getPreviewBook(), model.getMemoryUsage());
+    }
+
+    /**
+     * Initialize "Preview" panel.
+     */
+    private void initializePreviewPanel() {
+        preview = new SheetPreview(previewListView);
+        previewListView.setTooltip(new Tooltip("Front and back of each sheet of the generated document"));
+    }
+
+
+
     /************************************************************************
      * Support code for "Status Line" panel.
      */
@@ -579,6 +710,19 @@ public class PrimaryController {
     @FXML
     private Label statusLabel;
 
+    @FXML
+    private ProgressBar progressBar;
+
+    @FXML
+    private Button cancelButton;
+
+    @FXML
+    private void cancelButtonActionPerformed(ActionEvent event) {
+        cancelButton.setDisable(true);
+        setStatusMessage("Cancelling...");
+        model.cancelGenerate();
+    }
+
     private void clearData() {
         Alert alert = new Alert(AlertType.CONFIRMATION);
         alert.setTitle("Clear Data");
@@ -602,6 +746,11 @@ public class PrimaryController {
      */
     private void initializeStatusLine() {
         statusLabel.setTooltip(new Tooltip("Current status"));
+        progressBar.setTooltip(new Tooltip("Progress of the booklet generation"));
+        cancelButton.setTooltip(new Tooltip("Stop generating the booklet, no file is written"));
+
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,527 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SheetPreview is the class that shows thumbnails of the front and back of
+ * each sheet of the booklet in a ListView, so the result can be checked
+ * without generating and opening the PDF.
+ *
+ * Thumbnails are rendered by SheetRenderers on a small pool of background
+ * threads. The ListView only creates cells for the visible sheets, and the
+ * most recent requests are rendered first, so the visible sheets are always
+ * rendered before those scrolled past. Rendered thumbnails are kept in a
+ * size bounded LRU cache keyed by the source version, the settings and the
+ * sheet, so scrolling back or undoing a change shows them at once.
+ *
+ * Each thread loads its own copy of the source, which is closed when the
+ * source changes or is no longer shown, and when the thread has been idle
+ * for a while, so no copies are kept once previewing stops. The PDFBook for
+ * new settings is created, and its source checked, on a background thread
+ * too, so the FX thread never waits.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
+import phillockett65.Debug.Debug;
+
+public class SheetPreview {
+
+    // Debug delta used to adjust the local logging level.
+    private static final int DD = 0;
+
+    private static final double HEIGHT = 120.0;     // Thumbnail height (pixels).
+    private static final long CACHE_LIMIT = 64L * 1024 * 1024;    // Bytes.
+    private static final int QUEUE_LIMIT = 32;      // Waiting jobs kept.
+    private static final long IDLE = 30;            // Seconds before closing.
+
+    private final ListView<Integer> list;
+    private final LifoQueue queue = new LifoQueue();
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor setup;     // Creates the books.
+    private final ThreadLocal<Renderer> renderers = new ThreadLocal<>();
+    private final Set<Renderer> open = new HashSet<>();    // Guarded by itself.
+    private volatile String latest = "";    // Source version being shown.
+
+    // Only used on the FX thread.
+    private final Map<String, Image[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes = 0;
+    private final Set<String> pending = new HashSet<>();
+    private int requested = 0;          // Latest setBook() request.
+
+    private String source = "";
+    private String version = "";        // Identifies the source version.
+    private String settings = "";       // Identifies the plan and paper.
+    private MemoryUsageSetting setting = MemoryUsageSetting.setupMainMemoryOnly();
+    private ImpositionPlan layout = null;
+    private PDRectangle paper = null;
+
+
+    /************************************************************************
+     * Support code for background rendering.
+     */
+
+    /**
+     * A queue that hands out the most recently added job first, used as the
+     * work queue of the pool so that the latest requests, which are for the
+     * visible sheets, are rendered first.
+     */
+    private static class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean offer(Runnable job) {
+            return offerFirst(job);
+        }
+    }
+
+    /**
+     * The SheetRenderer of a worker thread, with the source version it has
+     * loaded. While busy it is only closed by its own thread.
+     */
+    private static class Renderer {
+        private final String version;
+        private final SheetRenderer renderer;
+        private boolean busy = true;    // Guarded by open.
+
+        private Renderer(String version, SheetRenderer renderer) {
+            this.version = version;
+            this.renderer = renderer;
+        }
+
+        private void close() {
+            try {
+                renderer.close();
+            } catch (IOException e) {
+                Debug.major(DD, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The parts of a PDFBook that affect the sheets.
+     */
+    private static class Booklet {
+        private String path = "";
+        private String id = "";         // Identifies the source version.
+        private ImpositionPlan plan = null;
+        private String settings = "";   // Identifies the plan and paper.
+        private PDRectangle paper = null;
+
+        private Booklet(PDFBook book) {
+            if (book == null) {
+                return;
+            }
+
+            path = book.getSourceDocument();
+            paper = book.getPageSize();
+            File file = new File(path);
+            if (file.isFile()) {
+                id = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+                plan = book.getLayout();
+                settings = plan.getSheetsPerSignature() + " " + plan.getFirstPage() + "-" +
+                    plan.getLastPage() + " " + plan.isRotate() + " " +
+                    paper.getWidth() + "x" + paper.getHeight();
+            }
+        }
+    }
+
+    /**
+     * Renders the front and back of a sheet.
+     */
+    private class Job implements Runnable {
+        private final String key;
+        private final String path;
+        private final String version;
+        private final MemoryUsageSetting setting;
+        private final ImpositionPlan layout;
+        private final PDRectangle paper;
+        private final int sheet;
+
+        private Job(String key, int sheet) {
+            this.key = key;
+            this.path = source;
+            this.version = SheetPreview.this.version;
+            this.setting = SheetPreview.this.setting;
+            this.layout = SheetPreview.this.layout;
+            this.paper = SheetPreview.this.paper;
+            this.sheet = sheet;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SheetRenderer renderer = getRenderer(path, version, setting);
+                final float scale = (float)(HEIGHT / paper.getHeight());
+                final Image[] images = new Image[] {
+                    toImage(renderer.render(layout, paper, sheet, ImpositionPlan.FRONT, scale)),
+                    toImage(renderer.render(layout, paper, sheet, ImpositionPlan.BACK, scale))
+                };
+
+                Platform.runLater(() -> rendered(key, images));
+            } catch (IOException | RuntimeException e) {
+                // Left pending, so it is not requested again.
+                Debug.warning(DD, "Preview of sheet %d failed: %s", sheet + 1, e.getMessage());
+            } finally {
+                releaseRenderer();
+            }
+        }
+    }
+
+    /**
+     * Get the SheetRenderer of this worker thread, loading the source if it
+     * is not already loaded.
+     */
+    private SheetRenderer getRenderer(String path, String version,
+            MemoryUsageSetting setting) throws IOException {
+        Renderer current = renderers.get();
+        synchronized (open) {
+            if (current != null && current.version.equals(version) && open.contains(current)) {
+                current.busy = true;
+
+                return current.renderer;
+            }
+        }
+
+        closeRenderer();
+        current = new Renderer(version, new SheetRenderer(path, setting));
+        renderers.set(current);
+        synchronized (open) {
+            open.add(current);
+        }
+
+        return current.renderer;
+    }
+
+    /**
+     * Called by a worker thread when a job is done with its SheetRenderer,
+     * closing it if the source it loaded is no longer shown.
+     */
+    private void releaseRenderer() {
+        Renderer current = renderers.get();
+        if (current == null) {
+            return;
+        }
+
+        synchronized (open) {
+            current.busy = false;
+            if (current.version.equals(latest)) {
+                return;
+            }
+        }
+        closeRenderer();
+    }
+
+    /**
+     * Close the SheetRenderer of this worker thread, unless it has already
+     * been closed.
+     */
+    private void closeRenderer() {
+        Renderer current = renderers.get();
+        if (current == null) {
+            return;
+        }
+
+        renderers.remove();
+        final boolean owned;
+        synchronized (open) {
+            owned = open.remove(current);
+        }
+        if (owned) {
+            current.close();
+        }
+    }
+
+    /**
+     * Close the SheetRenderers that are not busy and have not loaded the 
+     * given source version. Busy ones are closed by their own thread.
+     */
+    private void closeRenderers(String keep) {
+        List<Renderer> stale = new ArrayList<>();
+        synchronized (open) {
+            Iterator<Renderer> it = open.iterator();
+            while (it.hasNext()) {
+                Renderer renderer = it.next();
+                if (!renderer.busy && !renderer.version.equals(keep)) {
+                    it.remove();
+                    stale.add(renderer);
+                }
+            }
+        }
+
+        for (Renderer renderer : stale) {
+            renderer.close();
+        }
+    }
+
+    /**
+     * Convert a rendered image to a JavaFX image.
+     */
+    private static Image toImage(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        WritableImage fx = new WritableImage(width, height);
+        fx.getPixelWriter().setPixels(0, 0, width, height,
+            PixelFormat.getIntArgbInstance(), argb, 0, width);
+
+        return fx;
+    }
+
+    private static long sizeOf(Image[] images) {
+        long bytes = 0;
+        for (Image image : images) {
+            bytes += 4 * (long)image.getWidth() * (long)image.getHeight();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Called on the FX thread when a sheet has been rendered. Caches the
+     * thumbnails, evicting the least recently used over the limit, and shows
+     * them if they are still for the current settings.
+     */
+    private void rendered(String key, Image[] images) {
+        pending.remove(key);
+        cache.put(key, images);
+        cacheBytes += sizeOf(images);
+
+        Iterator<Map.Entry<String, Image[]>> it = cache.entrySet().iterator();
+        while (cacheBytes > CACHE_LIMIT && it.hasNext()) {
+            Map.Entry<String, Image[]> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            cacheBytes -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+
+        if (key.startsWith(getPrefix())) {
+            list.refresh();
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the cells.
+     */
+
+    /**
+     * Shows the sheet number with the front and back of the sheet.
+     */
+    private class SheetCell extends ListCell<Integer> {
+        private final Label label = new Label();
+        private final ImageView front = new ImageView();
+        private final ImageView back = new ImageView();
+        private final HBox box = new HBox(4.0, label, front, back);
+
+        private SheetCell() {
+            label.setMinWidth(24.0);
+            box.setAlignment(Pos.CENTER_LEFT);
+        }
+
+        @Override
+        protected void updateItem(Integer sheet, boolean empty) {
+            super.updateItem(sheet, empty);
+            setText(null);
+            if (empty || sheet == null) {
+                setGraphic(null);
+
+                return;
+            }
+
+            final Image[] images = request(sheet);
+            label.setText(String.valueOf(sheet + 1));
+            front.setImage(images == null ? null : images[0]);
+            back.setImage(images == null ? null : images[1]);
+            setGraphic(box);
+        }
+    }
+
+    private String getPrefix() {
+        return version + "|" + settings + "|";
+    }
+
+    /**
+     * Get the thumbnails of a sheet from the cache, requesting them if they
+     * are not there.
+     *
+     * @param sheet index of the sheet.
+     * @return the front and back thumbnails, or null if not yet rendered.
+     */
+    private Image[] request(int sheet) {
+        final String key = getPrefix() + sheet;
+        final Image[] images = cache.get(key);
+        if (images != null || layout == null || !pending.add(key)) {
+            return images;
+        }
+
+        executor.execute(new Job(key, sheet));
+
+        // Drop the oldest requests, which have usually been scrolled past.
+        while (queue.size() > QUEUE_LIMIT) {
+            Runnable dropped = queue.pollLast();
+            if (dropped instanceof Job) {
+                pending.remove(((Job)dropped).key);
+            }
+        }
+
+        return null;
+    }
+
+
+
+    /************************************************************************
+     * Support code for the Initialization of the SheetPreview.
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param view to show the sheets in.
+     */
+    public SheetPreview(ListView<Integer> view) {
+        list = view;
+        list.setFixedCellSize(HEIGHT + 8.0);
+        list.setCellFactory(v -> new SheetCell());
+
+        // An idle thread ends, closing its copy of the source.
+        final ThreadFactory factory = job -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    job.run();
+                } finally {
+                    closeRenderer();
+                }
+            }, "PDFBook preview");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+
+            return thread;
+        };
+
+        final int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        executor = new ThreadPoolExecutor(threads, threads, IDLE, TimeUnit.SECONDS, queue, factory);
+        executor.allowCoreThreadTimeOut(true);
+        setup = new ThreadPoolExecutor(1, 1, IDLE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        setup.allowCoreThreadTimeOut(true);
+    }
+
+
+
+    /************************************************************************
+     * Support code for the public interface.
+     */
+
+    /**
+     * Show the sheets of a booklet. The book is created, and the source 
+     * checked, on a background thread, then the sheets are shown on the FX 
+     * thread, unless setBook() has been called again by then. Nothing is
+     * rendered again if neither the source nor the settings that affect the
+     * sheets have changed.
+     *
+     * @param books creates a book configured with the current settings, or 
+     * null for none.
+     * @param memory usage for the copies of the source loaded for rendering.
+     */
+    public void setBook(Supplier<PDFBook> books, MemoryUsageSetting memory) {
+        final int request = ++requested;
+        setup.execute(() -> {
+            final Booklet booklet = new Booklet(books == null ? null : books.get());
+            Platform.runLater(() -> {
+                if (request == requested) {
+                    show(booklet, memory);
+                }
+            });
+        });
+    }
+
+    /**
+     * Called on the FX thread to show the sheets of a booklet.
+     */
+    private void show(Booklet booklet, MemoryUsageSetting memory) {
+        final String id = booklet.id;
+        final String current = booklet.settings;
+        final ImpositionPlan plan = booklet.plan;
+
+        setting = memory;
+        if (id.equals(version) && current.equals(settings)) {
+            return;
+        }
+        Debug.trace(DD, "SheetPreview.setBook(%s %s)", id, current);
+
+        // Waiting jobs are for the old settings.
+        queue.clear();
+        pending.clear();
+
+        final boolean reload = !id.equals(version);
+        source = booklet.path;
+        version = id;
+        settings = current;
+        layout = plan;
+        paper = booklet.paper;
+        if (reload) {
+            latest = id;
+            setup.execute(() -> closeRenderers(id));
+        }
+
+        List<Integer> sheets = new ArrayList<>();
+        final int count = plan == null ? 0 : plan.getSheetCount();
+        for (int sheet = 0; sheet < count; ++sheet) {
+            sheets.add(sheet);
+        }
+        list.getItems().setAll(sheets);
+        if (reload) {
+            list.scrollTo(0);
+        }
+    }
+
+}